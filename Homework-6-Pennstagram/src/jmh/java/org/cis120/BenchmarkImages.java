@@ -0,0 +1,46 @@
+package org.cis120;
+
+/**
+ * The images the benchmarks run on. "italy" is images/Italy.png (0.3 MP), and
+ * a number such as "10" is a synthetic image of about that many megapixels,
+ * made by tiling Italy.png (mirrored at alternate tiles so that there are no
+ * seams). Tiling a real photo keeps the color statistics realistic, which
+ * matters for reducePalette and flood.
+ */
+final class BenchmarkImages {
+
+    static final String ITALY = "images/Italy.png";
+
+    private BenchmarkImages() {
+    }
+
+    static PixelPicture get(String name) {
+        PixelPicture italy = new PixelPicture(ITALY);
+        if (name.equals("italy")) {
+            return italy;
+        }
+        double megapixels = Double.parseDouble(name);
+        // 4:3, like the photo
+        int w = (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3));
+        int h = (int) Math.round(w * 3.0 / 4);
+
+        int tw = italy.getWidth();
+        int th = italy.getHeight();
+        int[] tile = italy.getPixels();
+        int[] rgb = new int[w * h];
+        for (int row = 0; row < h; row++) {
+            int ty = row % th;
+            if ((row / th) % 2 == 1) {
+                ty = th - 1 - ty;
+            }
+            for (int col = 0; col < w; col++) {
+                int tx = col % tw;
+                if ((col / tw) % 2 == 1) {
+                    tx = tw - 1 - tx;
+                }
+                rgb[row * w + col] = tile[ty * tw + tx];
+            }
+        }
+        return new PixelPicture(w, h, rgb);
+    }
+}
@@ -0,0 +1,94 @@
+package org.cis120;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link AdvancedManipulations#blur} with the direct definition of
+ * the blur (averaging every pixel of the (2r+1) x (2r+1) box) on Italy.png.
+ * The direct version's cost grows with the square of the radius, while
+ * blur's cost stays the same, so the ratio of the two is the speedup.
+ *
+ * Both run on one thread, to compare the algorithms rather than the number
+ * of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Djava.awt.headless=true" })
+public class BlurBenchmark {
+
+    /**
+     * The radius of the blurring box.
+     */
+    @Param({ "1", "2", "4", "8", "16", "32", "64" })
+    public int radius;
+
+    private PixelPicture pic;
+
+    @Setup
+    public void setup() {
+        pic = BenchmarkImages.get("italy");
+        TileScheduler.setParallelism(1);
+    }
+
+    @Benchmark
+    public PixelPicture blur() {
+        return AdvancedManipulations.blur(pic, radius);
+    }
+
+    @Benchmark
+    public PixelPicture directBlur() {
+        return directBlur(pic, radius);
+    }
+
+    /**
+     * The blur exactly as specified: average the box around each pixel.
+     */
+    static PixelPicture directBlur(PixelPicture pic, int radius) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] src = pic.pixels();
+        int[] tgt = new int[w * h];
+        for (int row = 0; row < h; row++) {
+            for (int col = 0; col < w; col++) {
+                int top = Math.max(row - radius, 0);
+                int bottom = Math.min(row + radius, h - 1);
+                int left = Math.max(col - radius, 0);
+                int right = Math.min(col + radius, w - 1);
+
+                long r = 0;
+                long g = 0;
+                long b = 0;
+                for (int y = top; y <= bottom; y++) {
+                    for (int x = left; x <= right; x++) {
+                        int p = src[y * w + x];
+                        r += Pixel.red(p);
+                        g += Pixel.green(p);
+                        b += Pixel.blue(p);
+                    }
+                }
+                double n = (bottom - top + 1) * (right - left + 1);
+                tgt[row * w + col] = Pixel.pack(
+                        (int) Math.round(r / n),
+                        (int) Math.round(g / n),
+                        (int) Math.round(b / n)
+                );
+            }
+        }
+        return new PixelPicture(w, h, tgt);
+    }
+}
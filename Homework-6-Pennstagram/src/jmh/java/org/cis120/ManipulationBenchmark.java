@@ -0,0 +1,185 @@
+package org.cis120;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times every manipulation and preset effect. Each benchmark returns its
+ * result so that JMH keeps it alive.
+ *
+ * Run with {@code -prof gc} (the default in the jmh profile) to also get the
+ * allocation rate and GC time of each operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Djava.awt.headless=true" })
+public class ManipulationBenchmark {
+
+    /**
+     * The image to process; see {@link BenchmarkImages}.
+     */
+    @Param({ "italy", "1", "10", "50" })
+    public String image;
+
+    private PixelPicture pic;
+    private PixelPicture other;
+
+    @Setup
+    public void setup() {
+        pic = BenchmarkImages.get(image);
+        other = SimpleManipulations.rotateCW(SimpleManipulations.rotateCW(pic));
+        // rotations are lazy views, so copy out the rotated pixels now
+        other.pixels();
+    }
+
+    // rotations and mirrors only make a view of the picture; asking for the
+    // pixels times copying them out in the new orientation
+
+    @Benchmark
+    public int[] rotateCW() {
+        return SimpleManipulations.rotateCW(pic).pixels();
+    }
+
+    @Benchmark
+    public int[] rotateCCW() {
+        return SimpleManipulations.rotateCCW(pic).pixels();
+    }
+
+    @Benchmark
+    public int[] mirrorHorizontal() {
+        return SimpleManipulations.mirrorHorizontal(pic).pixels();
+    }
+
+    @Benchmark
+    public int[] mirrorVertical() {
+        return SimpleManipulations.mirrorVertical(pic).pixels();
+    }
+
+    @Benchmark
+    public int[] rotateCWOfMirrorVertical() {
+        // composed into a single transform, so the pixels are copied once
+        return SimpleManipulations.rotateCW(SimpleManipulations.mirrorVertical(pic)).pixels();
+    }
+
+    @Benchmark
+    public PixelPicture border() {
+        return SimpleManipulations.border(pic, 20, Pixel.BLACK);
+    }
+
+    @Benchmark
+    public PixelPicture grayScaleLuminosity() {
+        return SimpleManipulations.grayScaleLuminosity(pic);
+    }
+
+    @Benchmark
+    public PixelPicture grayScaleAverage() {
+        return SimpleManipulations.grayScaleAverage(pic);
+    }
+
+    @Benchmark
+    public PixelPicture invertColors() {
+        return SimpleManipulations.invertColors(pic);
+    }
+
+    @Benchmark
+    public PixelPicture scaleColors() {
+        return SimpleManipulations.scaleColors(pic, 1.2, 0.8, 0.5);
+    }
+
+    @Benchmark
+    public PixelPicture alphaBlend() {
+        return SimpleManipulations.alphaBlend(0.3, pic, other);
+    }
+
+    @Benchmark
+    public PixelPicture vignette() {
+        return SimpleManipulations.vignette(pic);
+    }
+
+    @Benchmark
+    public PixelPicture adjustContrast() {
+        return AdvancedManipulations.adjustContrast(pic, 2.0);
+    }
+
+    @Benchmark
+    public PixelPicture reducePalette16() {
+        return AdvancedManipulations.reducePalette(pic, 16);
+    }
+
+    @Benchmark
+    public PixelPicture reducePalette512() {
+        return AdvancedManipulations.reducePalette(pic, 512);
+    }
+
+    @Benchmark
+    public PixelPicture reducePaletteOctree512() {
+        return AdvancedManipulations.reducePalette(
+                pic, 512, AdvancedManipulations.PaletteMode.OCTREE
+        );
+    }
+
+    @Benchmark
+    public PixelPicture blur4() {
+        return AdvancedManipulations.blur(pic, 4);
+    }
+
+    @Benchmark
+    public PixelPicture blur32() {
+        return AdvancedManipulations.blur(pic, 32);
+    }
+
+    @Benchmark
+    public PixelPicture emboss() {
+        return AdvancedManipulations.emboss(pic);
+    }
+
+    @Benchmark
+    public PixelPicture sharpen() {
+        return AdvancedManipulations.sharpen(pic);
+    }
+
+    @Benchmark
+    public PixelPicture flood() {
+        // the top left corner is in the sky, which covers much of the image
+        return AdvancedManipulations.flood(pic, Pixel.RED, 0, 0);
+    }
+
+    @Benchmark
+    public PixelPicture eighteenNinety() {
+        return Effects.eighteenNinety(pic);
+    }
+
+    @Benchmark
+    public PixelPicture pinHole() {
+        return Effects.pinHole(pic);
+    }
+
+    @Benchmark
+    public PixelPicture zombie() {
+        return Effects.zombie(pic);
+    }
+
+    @Benchmark
+    public PixelPicture plastic() {
+        return Effects.plastic(pic);
+    }
+
+    @Benchmark
+    public PixelPicture peaches() {
+        return Effects.peaches(pic);
+    }
+}
@@ -0,0 +1,108 @@
+package org.cis120;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the PixelPicture paths around the manipulations: loading a
+ * {@link RawRaster}, saving as PNG and as a raw raster, converting to and from
+ * a Pixel bitmap, and the full, early-exit and sampled differences. Loading a
+ * PNG is timed by {@link PngLoadBenchmark}, which needs a setup before every
+ * call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Djava.awt.headless=true" })
+public class PictureBenchmark {
+
+    /**
+     * The image to use; see {@link BenchmarkImages}. PNG encoding of the
+     * largest images takes seconds, so they are left out here.
+     */
+    @Param({ "italy", "1", "10" })
+    public String image;
+
+    private PixelPicture pic;
+    private PixelPicture inverted;
+    private Pixel[][] bitmap;
+    private File dir;
+    private String raw;
+
+    @Setup
+    public void setup() throws IOException {
+        pic = BenchmarkImages.get(image);
+        inverted = SimpleManipulations.invertColors(pic);
+        bitmap = pic.getBitmap();
+
+        dir = File.createTempFile("pennstagram", "bench");
+        dir.delete();
+        dir.mkdir();
+        raw = new File(dir, "in.pxr").getPath();
+        pic.save(raw);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public PixelPicture loadRaw() {
+        return new PixelPicture(raw);
+    }
+
+    @Benchmark
+    public void savePng() {
+        pic.save(new File(dir, "out.png").getPath());
+    }
+
+    @Benchmark
+    public void saveRaw() {
+        pic.save(new File(dir, "out.pxr").getPath());
+    }
+
+    @Benchmark
+    public Pixel[][] getBitmap() {
+        return pic.getBitmap();
+    }
+
+    @Benchmark
+    public PixelPicture fromBitmap() {
+        return new PixelPicture(bitmap);
+    }
+
+    @Benchmark
+    public int diff() {
+        return PixelPicture.diff(pic, inverted);
+    }
+
+    @Benchmark
+    public long differenceEarlyExit() {
+        return PixelPicture.difference(pic, inverted, 0);
+    }
+
+    @Benchmark
+    public long sampledDifference() {
+        return PixelPicture.sampledDifference(pic, inverted, 17);
+    }
+}
@@ -0,0 +1,75 @@
+package org.cis120;
+
+import java.awt.Toolkit;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times loading a PNG file into a PixelPicture. This is kept apart from
+ * {@link PictureBenchmark} because it needs a setup before every call, which
+ * would add JMH's per-call overhead to the quick benchmarks there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Djava.awt.headless=true" })
+public class PngLoadBenchmark {
+
+    /**
+     * The image to use; see {@link BenchmarkImages}. PNG encoding of the
+     * largest images takes seconds, so they are left out here.
+     */
+    @Param({ "italy", "1", "10" })
+    public String image;
+
+    private File dir;
+    private String png;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = File.createTempFile("pennstagram", "bench");
+        dir.delete();
+        dir.mkdir();
+        png = new File(dir, "in.png").getPath();
+        BenchmarkImages.get(image).save(png);
+    }
+
+    /**
+     * Loading goes through the toolkit, which caches decoded images by file
+     * name. Flush the cached image so each load decodes the file again.
+     */
+    @Setup(Level.Invocation)
+    public void forgetDecodedPng() {
+        Toolkit.getDefaultToolkit().getImage(png).flush();
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public PixelPicture loadPng() {
+        return new PixelPicture(png);
+    }
+}
@@ -1,5 +1,8 @@
 package org.cis120;
 
+import java.util.Arrays;
+import java.util.BitSet;
+
 public class AdvancedManipulations {
 
     /**
@@ -38,7 +41,12 @@ public class AdvancedManipulations {
     public static PixelPicture adjustContrast(
             PixelPicture pic, double multiplier
     ) {
-        return pic;
+        // the average comes from the picture's cached statistics, and the
+        // rest only depends on each component, so it is a lookup table
+        int mean = pic.stats().meanIntensity();
+        return ColorTransform.eachChannel(
+                c -> (int) Math.round((c - mean) * multiplier) + mean
+        ).apply(pic);
     }
 
     /**
@@ -84,7 +92,61 @@ public class AdvancedManipulations {
      * @return the new reduced picture
      */
     public static PixelPicture reducePalette(PixelPicture pic, int numColors) {
-        return pic;
+        return reducePalette(pic, numColors, PaletteMode.MOST_FREQUENT);
+    }
+
+    /**
+     * How {@link #reducePalette(PixelPicture, int, PaletteMode)} chooses its
+     * palette.
+     */
+    public enum PaletteMode {
+        /**
+         * The most frequent colors of the picture, as described at
+         * {@link #reducePalette(PixelPicture, int)}.
+         */
+        MOST_FREQUENT,
+
+        /**
+         * The averages of regions of the color cube, chosen by an octree
+         * quantizer (see {@link OctreeQuantizer}) in a single pass over the
+         * picture and in memory that only depends on the number of colors.
+         * Gradients and pictures with many slightly different colors keep
+         * their range of colors better than with the most frequent ones.
+         */
+        OCTREE
+    }
+
+    /**
+     * Reduce a picture to a palette chosen by the given mode. Each pixel
+     * then becomes the closest palette color, with ties going to the more
+     * frequent one, exactly as in {@link #reducePalette(PixelPicture, int)}.
+     *
+     * @param pic       the original picture
+     * @param numColors the maximum number of colors that can be used in the
+     *                  reduced picture
+     * @param mode      how to choose the palette
+     * @return the new reduced picture
+     */
+    public static PixelPicture reducePalette(
+            PixelPicture pic, int numColors, PaletteMode mode
+    ) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] src = pic.pixels();
+
+        int[] palette;
+        if (numColors < 1) {
+            palette = new int[0];
+        } else if (mode == PaletteMode.OCTREE) {
+            palette = OctreeQuantizer.palette(src, numColors);
+        } else {
+            palette = pic.stats().topColors(numColors);
+        }
+        if (palette.length == 0) {
+            return pic;
+        }
+
+        return new PixelPicture(w, h, new PaletteIndex(palette).map(src, w, h));
     }
 
     /**
@@ -143,11 +205,199 @@ public class AdvancedManipulations {
      * @return A blurred version of the original picture.
      */
     public static PixelPicture blur(PixelPicture pic, int radius) {
-        return pic;
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        // a box wider than the picture covers the same pixels as one just as
+        // wide, so clamp the radius before it can overflow the window size
+        int rad = Math.min(Math.max(radius, 0), Math.max(w, h));
+        int[] src = pic.pixels();
+        int[] tgt = new int[w * h];
+
+        // each band fills its window from the rows around its first row, so
+        // keep bands at least as tall as the window
+        TileScheduler.forEachBand(
+                w, h, 2 * rad + 1, (start, end) -> blurRows(src, tgt, w, h, rad, start, end)
+        );
+        return new PixelPicture(w, h, tgt);
+    }
+
+    /**
+     * Blur as a pipeline stage. Since each output pixel only depends on the
+     * box around it, this is a {@link Pipeline.LocalStage} of the given
+     * radius.
+     *
+     * @param radius The radius of the blurring box.
+     * @return A stage that blurs its input.
+     */
+    public static Pipeline.LocalStage blurStage(int radius) {
+        return new Pipeline.LocalStage() {
+            @Override
+            public PixelPicture apply(PixelPicture pic) {
+                return blur(pic, radius);
+            }
+
+            @Override
+            public int radius() {
+                return Math.max(radius, 0);
+            }
+        };
+    }
+
+    /**
+     * Blurs rows [start, end) of src into tgt in constant time per pixel.
+     *
+     * The box around (row, col) is the sum of the column sums for columns
+     * col - radius to col + radius, where a column sum covers rows
+     * row - radius to row + radius. We keep one column sum per column and
+     * slide it down one row at a time (add the row entering the box, remove
+     * the one leaving it), and for each row slide a horizontal window across
+     * the column sums the same way. All sums are exact integers, so the
+     * result is the same as averaging each box directly. They are longs, since
+     * a box over a large picture can add up more than an int holds.
+     */
+    private static void blurRows(
+            int[] src, int[] tgt, int w, int h, int radius, int start, int end
+    ) {
+        long[] colR = new long[w];
+        long[] colG = new long[w];
+        long[] colB = new long[w];
+
+        for (int y = Math.max(start - radius, 0); y <= Math.min(start + radius, h - 1); y++) {
+            addRow(src, w, y, colR, colG, colB, 1);
+        }
+
+        for (int row = start; row < end; row++) {
+            int rows = Math.min(row + radius, h - 1) - Math.max(row - radius, 0) + 1;
+
+            long r = 0;
+            long g = 0;
+            long b = 0;
+            for (int x = 0; x <= Math.min(radius, w - 1); x++) {
+                r += colR[x];
+                g += colG[x];
+                b += colB[x];
+            }
+
+            for (int col = 0; col < w; col++) {
+                int cols = Math.min(col + radius, w - 1) - Math.max(col - radius, 0) + 1;
+                double n = rows * cols;
+                tgt[row * w + col] = Pixel.pack(
+                        (int) Math.round(r / n),
+                        (int) Math.round(g / n),
+                        (int) Math.round(b / n)
+                );
+
+                int in = col + radius + 1;
+                if (in < w) {
+                    r += colR[in];
+                    g += colG[in];
+                    b += colB[in];
+                }
+                int out = col - radius;
+                if (out >= 0) {
+                    r -= colR[out];
+                    g -= colG[out];
+                    b -= colB[out];
+                }
+            }
+
+            if (row + radius + 1 < h) {
+                addRow(src, w, row + radius + 1, colR, colG, colB, 1);
+            }
+            if (row - radius >= 0) {
+                addRow(src, w, row - radius, colR, colG, colB, -1);
+            }
+        }
     }
 
-    // You may want to add a static helper function here to
-    // help find the average color around the pixel you are blurring.
+    /**
+     * Adds (sign = 1) or subtracts (sign = -1) the components of row y of src
+     * to the column sums.
+     */
+    private static void addRow(
+            int[] src, int w, int y, long[] colR, long[] colG, long[] colB, int sign
+    ) {
+        int i = y * w;
+        for (int x = 0; x < w; x++, i++) {
+            int p = src[i];
+            colR[x] += sign * Pixel.red(p);
+            colG[x] += sign * Pixel.green(p);
+            colB[x] += sign * Pixel.blue(p);
+        }
+    }
+
+    private static final Convolution EMBOSS = Convolution.of(new double[][] {
+        { -1, 0, 0 },
+        { 0, 1, 0 },
+        { 0, 0, 0 }
+    });
+
+    private static final Convolution SHARPEN = Convolution.of(new double[][] {
+        { 0, -1, 0 },
+        { -1, 5, -1 },
+        { 0, -1, 0 }
+    });
+
+    private static final Convolution EDGES = Convolution.of(new double[][] {
+        { -1, -1, -1 },
+        { -1, 8, -1 },
+        { -1, -1, -1 }
+    });
+
+    /**
+     * Embosses a picture: the result is gray, lighter where the picture gets
+     * lighter going down and to the right, and darker where it gets darker.
+     *
+     * Each pixel becomes the gray level 127 + d, clipped to [0, 255], where
+     * d is the largest of the three component differences between the pixel
+     * and its upper-left neighbor. The top row and the left column have no
+     * upper-left neighbor, and become 127.
+     *
+     * @param pic the original picture
+     * @return the embossed picture
+     */
+    public static PixelPicture emboss(PixelPicture pic) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] px = EMBOSS.apply(pic.pixels(), w, h, (r, g, b) -> {
+            int level = Math.max(0, Math.min(255, 127 + Math.max(r, Math.max(g, b))));
+            return level * 0x010101;
+        });
+        int flat = 127 * 0x010101;
+        Arrays.fill(px, 0, Math.min(w, px.length), flat);
+        for (int i = w; i < px.length; i += w) {
+            px[i] = flat;
+        }
+        return new PixelPicture(w, h, px);
+    }
+
+    /**
+     * Sharpens a picture, adding to each component c its difference from
+     * each of the four neighbors (up, down, left and right), that is
+     * c + (c - up) + (c - down) + (c - left) + (c - right). This adds four
+     * times the difference from the average of the neighbors. The picture is
+     * extended beyond its edges by repeating the edge pixels.
+     *
+     * @param pic the original picture
+     * @return the sharpened picture
+     */
+    public static PixelPicture sharpen(PixelPicture pic) {
+        return SHARPEN.apply(pic);
+    }
+
+    /**
+     * Finds the edges in a picture: each component becomes eight times its
+     * value minus the sum of its eight neighbors, clipped to [0, 255]. Areas
+     * of even color become black, and edges stand out in the colors that
+     * change across them. The picture is extended beyond its edges by
+     * repeating the edge pixels.
+     *
+     * @param pic the original picture
+     * @return the edges of the picture
+     */
+    public static PixelPicture edges(PixelPicture pic) {
+        return EDGES.apply(pic);
+    }
 
     /**
      * Challenge Problem (this problem is worth 0 points):
@@ -173,8 +423,14 @@ public class AdvancedManipulations {
      * This is a naive algorithm that can be made significantly faster if you
      * wish to try.
      *
-     * For Q, you should use the provided IntQueue class. It works very much
-     * like the queues we implemented in OCaml.
+     * This implementation floods the same region, but a whole horizontal run
+     * ("span") of pixels at a time. It takes a seed point off a stack of
+     * packed pixel indices, extends it left and right as far as the target
+     * color goes, fills that span, and then pushes one seed for each run of
+     * target-colored pixels directly above and below the span. A bit set
+     * records which pixels have been filled, so no pixel is examined more than
+     * a constant number of times and no per-point objects are created. If
+     * (row, col) is outside the picture, the picture is returned unchanged.
      *
      * @param pic The original picture to be flooded.
      * @param c   The pixel the user "clicked" (representing the color that should
@@ -184,6 +440,64 @@ public class AdvancedManipulations {
      * @return A new picture with the appropriate region flooded.
      */
     public static PixelPicture flood(PixelPicture pic, Pixel c, int row, int col) {
-        return pic;
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        if (row < 0 || row >= h || col < 0 || col >= w) {
+            return pic;
+        }
+
+        int[] px = pic.getPixels();
+        int target = px[row * w + col];
+        int color = c.getRGB();
+        BitSet filled = new BitSet(w * h);
+        IntStack seeds = new IntStack();
+        seeds.push(row * w + col);
+
+        while (!seeds.isEmpty()) {
+            int seed = seeds.pop();
+            if (filled.get(seed)) {
+                continue;
+            }
+            int y = seed / w;
+            int rowStart = y * w;
+
+            // extend the seed to the whole span of target pixels around it
+            int left = seed;
+            while (left > rowStart && px[left - 1] == target && !filled.get(left - 1)) {
+                left--;
+            }
+            int right = seed;
+            while (right < rowStart + w - 1 && px[right + 1] == target
+                    && !filled.get(right + 1)) {
+                right++;
+            }
+            filled.set(left, right + 1);
+            Arrays.fill(px, left, right + 1, color);
+
+            if (y > 0) {
+                pushSpans(px, filled, seeds, target, left - w, right - w);
+            }
+            if (y < h - 1) {
+                pushSpans(px, filled, seeds, target, left + w, right + w);
+            }
+        }
+        return new PixelPicture(w, h, px);
+    }
+
+    /**
+     * Pushes one seed for each run of unfilled target-colored pixels between
+     * indices from and to (inclusive), which lie in the same row.
+     */
+    private static void pushSpans(
+            int[] px, BitSet filled, IntStack seeds, int target, int from, int to
+    ) {
+        boolean inRun = false;
+        for (int i = from; i <= to; i++) {
+            boolean open = px[i] == target && !filled.get(i);
+            if (open && !inRun) {
+                seeds.push(i);
+            }
+            inRun = open;
+        }
     }
 }
@@ -0,0 +1,473 @@
+package org.cis120;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Applies a manipulation to many image files without the GUI.
+ *
+ * Every image goes through three stages, each with its own pool of threads:
+ * decoding the file, running the pipeline, and encoding the result. While
+ * one image is being processed, others are being read and written, so the
+ * CPU-bound and I/O-bound work overlap. The number of images in flight
+ * (admitted but not yet written) is bounded: when the limit is reached, no
+ * more files are read until an image has been written, so memory use stays
+ * bounded however slow the encoders are.
+ *
+ * From the command line:
+ *
+ * <pre>
+ * java -cp target/classes org.cis120.Batch [options] steps input...
+ *
+ *   steps  comma-separated manipulations, e.g. "zombie" or
+ *          "luminosity,scale:1:0.95:0.75,blur:2" (see {@link #parse})
+ *   input  image files, or directories whose images are all processed
+ *
+ *   -o dir  where to write the results (default "out"), under the input
+ *           file names, which must all be different
+ *   -w n    threads running the pipeline (default: number of processors)
+ *   -d n    threads decoding (default: same as -w)
+ *   -e n    threads encoding (default: same as -w)
+ *   -q n    most images in flight (default: twice the total thread count)
+ * </pre>
+ *
+ * At the end it prints the number of images, the throughput, and the
+ * median and 99th percentile latency of an image from admission to being
+ * written. Files that fail are reported and skipped.
+ */
+public class Batch {
+
+    /**
+     * The outcome of a run.
+     */
+    public static class Report {
+        private final int images;
+        private final int failures;
+        private final long elapsedNanos;
+        // latencies of the images that were written, sorted
+        private final long[] latencies;
+
+        Report(int images, int failures, long elapsedNanos, long[] latencies) {
+            this.images = images;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+        }
+
+        /**
+         * @return the number of images written
+         */
+        public int getImages() {
+            return images;
+        }
+
+        /**
+         * @return the number of inputs that could not be read, processed or
+         *         written
+         */
+        public int getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the images written per second of the whole run
+         */
+        public double imagesPerSecond() {
+            return elapsedNanos == 0 ? 0 : images * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * The latency of an image, from when it was admitted until it was
+         * written, that {@code percent} percent of the images did not exceed.
+         *
+         * @param percent a percentage, from 0 to 100
+         * @return the latency in milliseconds, or 0 if nothing was written
+         */
+        public double latencyMillis(double percent) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            // nearest rank
+            int rank = (int) Math.ceil(percent / 100 * latencies.length);
+            return latencies[Math.max(rank, 1) - 1] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.ROOT,
+                    "%d images, %d failed, %.1f s: %.2f images/s, latency p50 %.1f ms, p99 %.1f ms",
+                    images, failures, elapsedNanos / 1e9, imagesPerSecond(),
+                    latencyMillis(50), latencyMillis(99)
+            );
+        }
+    }
+
+    private final Pipeline pipeline;
+    private final File outputDir;
+    private final int decoders;
+    private final int workers;
+    private final int encoders;
+    private final int maxInFlight;
+
+    /**
+     * Creates a batch job.
+     *
+     * @param pipeline    the manipulation to apply to every image
+     * @param outputDir   the directory to write the results to
+     * @param decoders    the number of threads reading files
+     * @param workers     the number of threads running the pipeline
+     * @param encoders    the number of threads writing files
+     * @param maxInFlight the most images read but not yet written
+     */
+    public Batch(
+            Pipeline pipeline, File outputDir, int decoders, int workers, int encoders,
+            int maxInFlight
+    ) {
+        if (decoders < 1 || workers < 1 || encoders < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("thread counts and limit must be at least 1");
+        }
+        this.pipeline = pipeline;
+        this.outputDir = outputDir;
+        this.decoders = decoders;
+        this.workers = workers;
+        this.encoders = encoders;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Processes the files, writing each result to the output directory
+     * under the name of its input, and waits until all are done. Failures
+     * are printed to standard error.
+     *
+     * @param inputs the image files to process
+     * @return statistics about the run
+     * @throws IllegalArgumentException if two inputs have the same name, so
+     *                                  that one result would overwrite the
+     *                                  other
+     */
+    public Report run(List<File> inputs) {
+        Map<String, File> names = new HashMap<String, File>();
+        for (File in : inputs) {
+            File other = names.put(in.getName(), in);
+            if (other != null) {
+                throw new IllegalArgumentException(
+                        "inputs " + other + " and " + in + " would both be written to "
+                                + new File(outputDir, in.getName())
+                );
+            }
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new RuntimeException("cannot create " + outputDir);
+        }
+        ExecutorService decode = Executors.newFixedThreadPool(decoders, threads("decode"));
+        ExecutorService process = Executors.newFixedThreadPool(workers, threads("process"));
+        ExecutorService encode = Executors.newFixedThreadPool(encoders, threads("encode"));
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicInteger failures = new AtomicInteger();
+        long[] latencies = new long[inputs.size()];
+        AtomicInteger written = new AtomicInteger();
+
+        long start = System.nanoTime();
+        List<CompletableFuture<?>> done = new ArrayList<CompletableFuture<?>>();
+        try {
+            for (File in : inputs) {
+                inFlight.acquireUninterruptibly(); // blocks while the stages are full
+                long admitted = System.nanoTime();
+                File out = new File(outputDir, in.getName());
+                done.add(
+                        CompletableFuture.supplyAsync(() -> decode(in), decode)
+                                .thenApplyAsync(pipeline::apply, process)
+                                .thenAcceptAsync(pic -> pic.save(out.getPath()), encode)
+                                .whenComplete((ok, e) -> {
+                                    if (e == null) {
+                                        latencies[written.getAndIncrement()] =
+                                                System.nanoTime() - admitted;
+                                    } else {
+                                        failures.incrementAndGet();
+                                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                                        System.err.println(in + ": " + cause);
+                                    }
+                                    inFlight.release();
+                                })
+                );
+            }
+            for (CompletableFuture<?> f : done) {
+                f.handle((ok, e) -> null).join();
+            }
+        } finally {
+            decode.shutdown();
+            process.shutdown();
+            encode.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+        int n = written.get();
+        return new Report(n, failures.get(), elapsed, Arrays.copyOf(latencies, n));
+    }
+
+    private static PixelPicture decode(File in) {
+        try {
+            return PixelPicture.read(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ThreadFactory threads(String stage) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "batch-" + stage + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Builds a pipeline from a comma-separated list of steps. A step is a
+     * name, followed by its parameters separated by colons:
+     *
+     * <pre>
+     *   1890s, pinhole, zombie, plastic, peaches   the Effects presets
+     *   cw, ccw                                    rotations
+     *   mirrorh, mirrorv                           mirrors
+     *   invert, average, luminosity, vignette
+     *   scale:r:g:b                                scaleColors
+     *   border:width                               black border
+     *   blur:radius
+     *   emboss, sharpen, edges
+     *   contrast:multiplier
+     *   palette:colors[:octree]                    reducePalette, by default
+     *                                              with the most frequent colors
+     * </pre>
+     *
+     * Per-pixel steps are added as point stages, so that consecutive ones
+     * run in a single pass.
+     *
+     * @param steps the description of the pipeline
+     * @return the pipeline
+     * @throws IllegalArgumentException if a step is not understood
+     */
+    public static Pipeline parse(String steps) {
+        Pipeline p = new Pipeline();
+        for (String step : steps.split(",")) {
+            String[] parts = step.trim().split(":");
+            String name = parts[0].toLowerCase(Locale.ROOT);
+            try {
+                switch (name) {
+                    case "1890s":
+                        p = p.then(Effects::eighteenNinety);
+                        break;
+                    case "pinhole":
+                        p = p.then(Effects::pinHole);
+                        break;
+                    case "zombie":
+                        p = p.then(Effects::zombie);
+                        break;
+                    case "plastic":
+                        p = p.then(Effects::plastic);
+                        break;
+                    case "peaches":
+                        p = p.then(Effects::peaches);
+                        break;
+                    case "cw":
+                        p = p.then(SimpleManipulations::rotateCW);
+                        break;
+                    case "ccw":
+                        p = p.then(SimpleManipulations::rotateCCW);
+                        break;
+                    case "mirrorh":
+                        p = p.then(SimpleManipulations::mirrorHorizontal);
+                        break;
+                    case "mirrorv":
+                        p = p.then(SimpleManipulations::mirrorVertical);
+                        break;
+                    case "invert":
+                        p = p.then(SimpleManipulations.invertColorsStage());
+                        break;
+                    case "average":
+                        p = p.then(SimpleManipulations.grayScaleAverageStage());
+                        break;
+                    case "luminosity":
+                        p = p.then(SimpleManipulations.grayScaleLuminosityStage());
+                        break;
+                    case "vignette":
+                        p = p.then(SimpleManipulations.vignetteStage());
+                        break;
+                    case "scale":
+                        p = p.then(
+                                SimpleManipulations.scaleColorsStage(
+                                        Double.parseDouble(parts[1]),
+                                        Double.parseDouble(parts[2]),
+                                        Double.parseDouble(parts[3])
+                                )
+                        );
+                        break;
+                    case "border":
+                        int width = Integer.parseInt(parts[1]);
+                        p = p.then(pic -> SimpleManipulations.border(pic, width, Pixel.BLACK));
+                        break;
+                    case "blur":
+                        p = p.then(AdvancedManipulations.blurStage(Integer.parseInt(parts[1])));
+                        break;
+                    case "emboss":
+                        p = p.then(AdvancedManipulations::emboss);
+                        break;
+                    case "sharpen":
+                        p = p.then(AdvancedManipulations::sharpen);
+                        break;
+                    case "edges":
+                        p = p.then(AdvancedManipulations::edges);
+                        break;
+                    case "contrast":
+                        double multiplier = Double.parseDouble(parts[1]);
+                        p = p.then(pic -> AdvancedManipulations.adjustContrast(pic, multiplier));
+                        break;
+                    case "palette":
+                        int colors = Integer.parseInt(parts[1]);
+                        AdvancedManipulations.PaletteMode mode;
+                        if (parts.length == 2) {
+                            mode = AdvancedManipulations.PaletteMode.MOST_FREQUENT;
+                        } else if (parts[2].equalsIgnoreCase("octree")) {
+                            mode = AdvancedManipulations.PaletteMode.OCTREE;
+                        } else {
+                            throw new IllegalArgumentException(
+                                    "unknown palette mode in \"" + step + "\""
+                            );
+                        }
+                        p = p.then(pic -> AdvancedManipulations.reducePalette(pic, colors, mode));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown step \"" + step + "\"");
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException("bad parameters in \"" + step + "\"", e);
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Replaces each directory by the image files in it (not recursively).
+     *
+     * @param paths files and directories
+     * @return the files
+     * @throws IllegalArgumentException if a directory cannot be listed
+     */
+    static List<File> expand(List<String> paths) {
+        Set<String> suffixes = new HashSet<String>();
+        for (String s : ImageIO.getReaderFileSuffixes()) {
+            suffixes.add(s.toLowerCase(Locale.ROOT));
+        }
+        suffixes.add(RawRaster.SUFFIX);
+
+        List<File> files = new ArrayList<File>();
+        for (String path : paths) {
+            File f = new File(path);
+            if (!f.isDirectory()) {
+                files.add(f);
+                continue;
+            }
+            File[] children = f.listFiles();
+            if (children == null) {
+                throw new IllegalArgumentException("cannot list directory " + f);
+            }
+            Arrays.sort(children);
+            for (File child : children) {
+                String format = PixelPicture.formatOf(child.getName()).toLowerCase(Locale.ROOT);
+                if (child.isFile() && child.getName().contains(".") && suffixes.contains(format)) {
+                    files.add(child);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println(
+                "usage: Batch [-o dir] [-w workers] [-d decoders] [-e encoders]"
+                        + " [-q in-flight] steps input..."
+        );
+        System.exit(2);
+    }
+
+    public static void main(String[] args) {
+        File outputDir = new File("out");
+        int workers = Runtime.getRuntime().availableProcessors();
+        int decoders = -1;
+        int encoders = -1;
+        int maxInFlight = -1;
+
+        int i = 0;
+        try {
+            for (; i < args.length && args[i].startsWith("-"); i += 2) {
+                if (i + 1 == args.length) {
+                    usage("missing value for " + args[i]);
+                }
+                switch (args[i]) {
+                    case "-o":
+                        outputDir = new File(args[i + 1]);
+                        break;
+                    case "-w":
+                        workers = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "-d":
+                        decoders = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "-e":
+                        encoders = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "-q":
+                        maxInFlight = Integer.parseInt(args[i + 1]);
+                        break;
+                    default:
+                        usage("unknown option " + args[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage("not a number: " + args[i + 1]);
+        }
+        if (args.length - i < 2) {
+            usage("expected steps and at least one input");
+        }
+        decoders = decoders < 0 ? workers : decoders;
+        encoders = encoders < 0 ? workers : encoders;
+        maxInFlight = maxInFlight < 0 ? 2 * (decoders + workers + encoders) : maxInFlight;
+
+        Pipeline pipeline = null;
+        try {
+            pipeline = parse(args[i]);
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        }
+        Batch batch = new Batch(pipeline, outputDir, decoders, workers, encoders, maxInFlight);
+
+        // the images are processed concurrently, so each one uses one thread
+        TileScheduler.setParallelism(1);
+        Report report = null;
+        try {
+            report = batch.run(expand(Arrays.asList(args).subList(i + 1, args.length)));
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        }
+        System.out.println(report);
+        System.exit(report.getFailures() == 0 ? 0 : 1);
+    }
+}
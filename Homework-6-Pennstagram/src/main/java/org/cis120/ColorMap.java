@@ -1,21 +1,20 @@
 package org.cis120;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-
 /**
  * This is a data structure that helps keep track of the frequency with which
- * pixels of specific colors occur. It is a sorted map from Pixel to Integer.
+ * pixels of specific colors occur. It is a map from Pixel to Integer.
  *
- * Do not change this file.
+ * Internally, colors are stored as packed {@code 0xRRGGBB} ints in an
+ * {@link IntIntMap}, and the frequency order is computed with radix sorts
+ * rather than comparisons. The packed-color methods ({@link #addColor},
+ * {@link #getSortedColors}, {@link #getTopColors}) avoid creating Pixels
+ * altogether.
  */
 public class ColorMap {
 
-    // The internal data structure: a mapping from pixels to integers
+    // The internal data structure: a mapping from packed colors to integers
 
-    private Map<Pixel, Integer> m = new TreeMap<Pixel, Integer>();
+    private IntIntMap m = new IntIntMap();
 
     /**
      * Adds an element to the map or updates its value if the key already
@@ -25,7 +24,36 @@ public class ColorMap {
      * @param v The int to use as the value.
      */
     public void put(Pixel p, int v) {
-        m.put(p, v);
+        m.put(p.getRGB(), v);
+    }
+
+    /**
+     * Increases the frequency of a packed color by one, adding the color with
+     * frequency 1 if it is not in the map yet.
+     *
+     * @param rgb The packed {@code 0xRRGGBB} color.
+     */
+    public void addColor(int rgb) {
+        m.add(rgb & 0xFFFFFF, 1);
+    }
+
+    /**
+     * Adds the frequencies of every color of another map to this one.
+     *
+     * @param other The map to add.
+     */
+    void addAll(ColorMap other) {
+        for (int rgb : other.m.keys()) {
+            m.add(rgb, other.m.get(rgb, 0));
+        }
+    }
+
+    /**
+     * @param rgb The packed {@code 0xRRGGBB} color.
+     * @return The frequency of the color, or 0 if it is not in the map.
+     */
+    int getFrequency(int rgb) {
+        return m.get(rgb & 0xFFFFFF, 0);
     }
 
     /**
@@ -35,7 +63,7 @@ public class ColorMap {
      * @return true if the map contains the pixel; false otherwise.
      */
     public boolean contains(Pixel p) {
-        return m.containsKey(p);
+        return m.containsKey(p.getRGB());
     }
 
     /**
@@ -47,7 +75,10 @@ public class ColorMap {
      * @return The frequency with which the given pixel was used.
      */
     public int getValue(Pixel p) {
-        return m.get(p);
+        if (!contains(p)) {
+            throw new NullPointerException("no frequency stored for " + p);
+        }
+        return m.get(p.getRGB(), 0);
     }
 
     /**
@@ -67,32 +98,136 @@ public class ColorMap {
      *         with the highest frequency in the image.
      */
     public Pixel[] getSortedPixels() {
-        Map<Integer, List<Pixel>> invert = new TreeMap<Integer, List<Pixel>>();
-        // Invert the map
-        for (Map.Entry<Pixel, Integer> entry : m.entrySet()) {
-            int freq = entry.getValue();
-            Pixel p = entry.getKey();
-            List<Pixel> pixels;
-            if (invert.containsKey(freq)) {
-                pixels = invert.get(freq);
-            } else {
-                pixels = new ArrayList<Pixel>();
+        int[] colors = getSortedColors();
+        Pixel[] array = new Pixel[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            array[i] = Pixel.valueOf(colors[i]);
+        }
+        return array;
+    }
+
+    /**
+     * Get the packed colors in the map sorted by frequency, in descending
+     * order. Colors with the same frequency are in descending order of their
+     * packed value (equivalently, of {@link Pixel#compareTo}). This is the
+     * same order as {@link #getSortedPixels()}.
+     *
+     * @return An array of every color in the map, most frequent first.
+     */
+    public int[] getSortedColors() {
+        return getTopColors(m.size());
+    }
+
+    /**
+     * Get the {@code k} most frequent colors. The result is the first
+     * {@code k} elements of {@link #getSortedColors()}, but only those
+     * colors are sorted, so this is cheaper when {@code k} is much smaller
+     * than the number of colors.
+     *
+     * @param k The number of colors to return.
+     * @return The k most frequent packed colors, most frequent first (or all
+     *         of them, if there are fewer than k).
+     */
+    public int[] getTopColors(int k) {
+        long[] entries = entries();
+        long[] top = selectLargest(entries, Math.max(0, Math.min(k, entries.length)));
+        radixSort(top);
+        int[] colors = new int[top.length];
+        for (int i = 0; i < top.length; i++) {
+            // radixSort is ascending, so read it backwards
+            colors[i] = (int) (top[top.length - 1 - i] & 0xFFFFFF);
+        }
+        return colors;
+    }
+
+    /**
+     * Each color in the map as a single sort key: the frequency (with its
+     * sign bit flipped, so that negative values order correctly as unsigned)
+     * in the top 32 of 56 bits, and the color in the low 24 bits. Since the
+     * colors are distinct, so are the keys.
+     */
+    private long[] entries() {
+        int[] colors = m.keys();
+        long[] entries = new long[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            int freq = m.get(colors[i], 0) ^ Integer.MIN_VALUE;
+            entries[i] = ((freq & 0xFFFFFFFFL) << 24) | colors[i];
+        }
+        return entries;
+    }
+
+    private static final int KEY_BITS = 56;
+
+    /**
+     * The k largest of a set of distinct 56-bit keys, in no particular order.
+     *
+     * This is a most-significant-digit radix selection: count the keys by
+     * their top byte, take whole buckets from the largest down while they
+     * fit, and then continue with the next byte inside the one bucket that
+     * only partly fits. Each round scans the remaining candidates once.
+     */
+    private static long[] selectLargest(long[] keys, int k) {
+        long[] result = new long[k];
+        int taken = 0;
+        long[] candidates = keys;
+        int n = keys.length;
+
+        for (int shift = KEY_BITS - 8; taken < k; shift -= 8) {
+            int[] count = new int[256];
+            for (int i = 0; i < n; i++) {
+                count[(int) (candidates[i] >>> shift) & 0xFF]++;
+            }
+
+            // buckets above split fit entirely; split itself does not
+            int split = 255;
+            int above = 0;
+            while (split >= 0 && taken + above + count[split] <= k) {
+                above += count[split];
+                split--;
             }
-            pixels.add(p);
-            invert.put(freq, pixels);
+
+            long[] next = new long[split >= 0 ? count[split] : 0];
+            int nextSize = 0;
+            for (int i = 0; i < n; i++) {
+                int digit = (int) (candidates[i] >>> shift) & 0xFF;
+                if (digit > split) {
+                    result[taken++] = candidates[i];
+                } else if (digit == split) {
+                    next[nextSize++] = candidates[i];
+                }
+            }
+            candidates = next;
+            n = nextSize;
         }
-        ArrayList<Pixel> answer = new ArrayList<Pixel>();
-        for (List<Pixel> l : invert.values()) {
-            if (l != null) {
-                answer.addAll(l);
+        return result;
+    }
+
+    /**
+     * Sorts 56-bit keys in ascending order with a least-significant-digit
+     * radix sort, one byte per pass.
+     */
+    private static void radixSort(long[] a) {
+        long[] buf = new long[a.length];
+        long[] from = a;
+        long[] to = buf;
+        for (int shift = 0; shift < KEY_BITS; shift += 8) {
+            int[] start = new int[257];
+            for (long x : from) {
+                start[((int) (x >>> shift) & 0xFF) + 1]++;
             }
+            for (int b = 0; b < 256; b++) {
+                start[b + 1] += start[b];
+            }
+            for (long x : from) {
+                to[start[(int) (x >>> shift) & 0xFF]++] = x;
+            }
+            long[] t = from;
+            from = to;
+            to = t;
         }
-        int k = answer.size();
-        Pixel[] array = new Pixel[k];
-        for (int i = 0; i < k; i++) {
-            array[i] = answer.get(k - i - 1);
+        if (from != a) {
+            System.arraycopy(from, 0, a, 0, a.length);
         }
-        return array;
     }
 
 }
@@ -0,0 +1,372 @@
+package org.cis120;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A point stage that depends only on the color of a pixel, compiled into
+ * lookup tables.
+ *
+ * Most color manipulations work on each component separately: the output
+ * red depends only on the input red, and so on (invert, scaling, ...). Such
+ * a transform is stored as three 256-entry tables, so applying it costs one
+ * lookup per component however many operations went into it. Chaining two
+ * of them with {@link #then} just composes their tables.
+ *
+ * The gray scales mix the components instead. A mixing transform first
+ * computes a gray level
+ *
+ * L = round((wr(r) + wg(g) + wb(b)) / divisor), clipped to [0, 255]
+ *
+ * from per-component tables of doubles, and then looks up each output
+ * component in a 256-entry table indexed by L. A full table indexed by
+ * color would need 2^24 entries; this form has the same result for every
+ * transform that only mixes through gray scales, since whatever comes after
+ * the mix depends on L alone. When every weight is a small integer (as in
+ * the average gray scale) the division and rounding are tabulated as well,
+ * indexed by the integer sum.
+ *
+ * The tables are filled in by running the original double arithmetic on
+ * every possible input, and mixing adds up the same products in the same
+ * order as {@link SimpleManipulations}, so a transform gives exactly the
+ * same pixels as the stages it replaces.
+ *
+ * {@link Pipeline#compose} fuses consecutive color transforms into one.
+ */
+public final class ColorTransform implements Pipeline.PointStage {
+
+    /**
+     * The transform that leaves every color unchanged.
+     */
+    public static final ColorTransform IDENTITY = eachChannel(c -> c);
+
+    // largest integer sum of weights that is tabulated
+    private static final int MAX_SUM_TABLE = 1 << 12;
+
+    // output components: indexed by the input component, or by the level
+    // if mixing; already shifted into place
+    private final int[] red;
+    private final int[] green;
+    private final int[] blue;
+
+    // the mix, or null for a per-component transform
+    private final double[] redWeight;
+    private final double[] greenWeight;
+    private final double[] blueWeight;
+    private final double divisor;
+
+    // if mixing: the output color for each level
+    private final int[] byLevel;
+
+    // if the weights are all integers: the output color for each sum
+    private final int[] bySum;
+    private final int[] redSum;
+    private final int[] greenSum;
+    private final int[] blueSum;
+
+    private ColorTransform(int[] red, int[] green, int[] blue) {
+        this(red, green, blue, null, null, null, 1.0);
+    }
+
+    private ColorTransform(
+            int[] red, int[] green, int[] blue,
+            double[] redWeight, double[] greenWeight, double[] blueWeight, double divisor
+    ) {
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+        this.redWeight = redWeight;
+        this.greenWeight = greenWeight;
+        this.blueWeight = blueWeight;
+        this.divisor = divisor;
+
+        if (redWeight != null) {
+            byLevel = new int[256];
+            for (int level = 0; level < 256; level++) {
+                byLevel[level] = red[level] | green[level] | blue[level];
+            }
+        } else {
+            byLevel = null;
+        }
+        if (redWeight != null && isSmallInts(redWeight) && isSmallInts(greenWeight)
+                && isSmallInts(blueWeight)) {
+            redSum = toInts(redWeight);
+            greenSum = toInts(greenWeight);
+            blueSum = toInts(blueWeight);
+            bySum = new int[max(redSum) + max(greenSum) + max(blueSum) + 1];
+            for (int s = 0; s < bySum.length; s++) {
+                bySum[s] = byLevel[level(s, divisor)];
+            }
+        } else {
+            redSum = null;
+            greenSum = null;
+            blueSum = null;
+            bySum = null;
+        }
+    }
+
+    /**
+     * A transform that maps each component separately. The functions are
+     * called on every value from 0 to 255, and their results are clipped to
+     * [0, 255] as {@link Pixel#pack} would.
+     *
+     * @param r the new red component, given the old one
+     * @param g the new green component, given the old one
+     * @param b the new blue component, given the old one
+     * @return the compiled transform
+     */
+    public static ColorTransform perChannel(
+            IntUnaryOperator r, IntUnaryOperator g, IntUnaryOperator b
+    ) {
+        return new ColorTransform(table(r, 16), table(g, 8), table(b, 0));
+    }
+
+    /**
+     * A transform that maps every component with the same function.
+     *
+     * @param f the new value of a component, given the old one
+     * @return the compiled transform
+     */
+    public static ColorTransform eachChannel(IntUnaryOperator f) {
+        return perChannel(f, f, f);
+    }
+
+    /**
+     * A gray scale transform, mapping each color to the gray level
+     * {@code round((wr * r + wg * g + wb * b) / divisor)}, clipped to
+     * [0, 255]. For example, the luminosity gray scale is
+     * {@code mix(0.299, 0.587, 0.114, 1)} and the average one is
+     * {@code mix(1, 1, 1, 3)}.
+     *
+     * @param wr      the weight of red
+     * @param wg      the weight of green
+     * @param wb      the weight of blue
+     * @param divisor what to divide the weighted sum by
+     * @return the compiled transform
+     */
+    public static ColorTransform mix(double wr, double wg, double wb, double divisor) {
+        int[] gray = table(c -> c, 0);
+        return new ColorTransform(
+                shift(gray, 16), shift(gray, 8), gray,
+                weights(wr), weights(wg), weights(wb), divisor
+        );
+    }
+
+    private static int[] table(IntUnaryOperator f, int shift) {
+        int[] t = new int[256];
+        for (int c = 0; c < 256; c++) {
+            t[c] = clip(f.applyAsInt(c)) << shift;
+        }
+        return t;
+    }
+
+    private static int[] shift(int[] t, int shift) {
+        int[] s = new int[256];
+        for (int c = 0; c < 256; c++) {
+            s[c] = t[c] << shift;
+        }
+        return s;
+    }
+
+    private static double[] weights(double w) {
+        double[] t = new double[256];
+        for (int c = 0; c < 256; c++) {
+            t[c] = w * c;
+        }
+        return t;
+    }
+
+    private static boolean isSmallInts(double[] t) {
+        for (double d : t) {
+            if (!(d >= 0 && d <= MAX_SUM_TABLE && d == Math.rint(d))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] toInts(double[] t) {
+        int[] s = new int[t.length];
+        for (int c = 0; c < t.length; c++) {
+            s[c] = (int) t[c];
+        }
+        return s;
+    }
+
+    private static int max(int[] t) {
+        int m = 0;
+        for (int v : t) {
+            m = Math.max(m, v);
+        }
+        return m;
+    }
+
+    private static int clip(int c) {
+        return Math.max(0, Math.min(255, c));
+    }
+
+    private static int level(double sum, double divisor) {
+        return clip((int) Math.round(sum / divisor));
+    }
+
+    /**
+     * @return true if each output component depends only on the same input
+     *         component
+     */
+    public boolean isPerChannel() {
+        return redWeight == null;
+    }
+
+    /**
+     * @param next the transform to run after this one
+     * @return a transform equivalent to this one followed by {@code next}
+     */
+    public ColorTransform then(ColorTransform next) {
+        if (isPerChannel() && next.isPerChannel()) {
+            return new ColorTransform(
+                    compose(red, 16, next.red),
+                    compose(green, 8, next.green),
+                    compose(blue, 0, next.blue)
+            );
+        }
+        if (isPerChannel()) {
+            // the mix of next reads this transform's output components
+            double[] rw = new double[256];
+            double[] gw = new double[256];
+            double[] bw = new double[256];
+            for (int c = 0; c < 256; c++) {
+                rw[c] = next.redWeight[red[c] >>> 16];
+                gw[c] = next.greenWeight[green[c] >>> 8];
+                bw[c] = next.blueWeight[blue[c]];
+            }
+            return new ColorTransform(
+                    next.red, next.green, next.blue, rw, gw, bw, next.divisor
+            );
+        }
+        // everything after the mix only depends on the level
+        int[] r = new int[256];
+        int[] g = new int[256];
+        int[] b = new int[256];
+        for (int level = 0; level < 256; level++) {
+            int rgb = next.apply(byLevel[level]);
+            r[level] = rgb & 0xFF0000;
+            g[level] = rgb & 0x00FF00;
+            b[level] = rgb & 0x0000FF;
+        }
+        return new ColorTransform(r, g, b, redWeight, greenWeight, blueWeight, divisor);
+    }
+
+    private static int[] compose(int[] first, int shift, int[] second) {
+        int[] t = new int[256];
+        for (int c = 0; c < 256; c++) {
+            t[c] = second[first[c] >>> shift];
+        }
+        return t;
+    }
+
+    /**
+     * The per-component equivalent of {@link Pipeline#blend}: blends the
+     * results of two transforms on each color with
+     * {@link SimpleManipulations#weightedAverage}.
+     *
+     * @param alpha  weight of {@code first}
+     * @param first  transform whose result has weight {@code alpha}
+     * @param second transform whose result has weight {@code 1 - alpha}
+     * @return the blended transform
+     * @throws IllegalArgumentException if either transform mixes components
+     */
+    public static ColorTransform blend(
+            double alpha, ColorTransform first, ColorTransform second
+    ) {
+        if (!first.isPerChannel() || !second.isPerChannel()) {
+            throw new IllegalArgumentException("only per-channel transforms can be blended");
+        }
+        return new ColorTransform(
+                blend(alpha, first.red, second.red, 16),
+                blend(alpha, first.green, second.green, 8),
+                blend(alpha, first.blue, second.blue, 0)
+        );
+    }
+
+    private static int[] blend(double alpha, int[] x, int[] y, int shift) {
+        int[] t = new int[256];
+        for (int c = 0; c < 256; c++) {
+            int avg = SimpleManipulations.weightedAverage(alpha, x[c] >>> shift, y[c] >>> shift);
+            t[c] = clip(avg) << shift;
+        }
+        return t;
+    }
+
+    /**
+     * @param rgb a packed {@code 0xRRGGBB} color
+     * @return the transformed color
+     */
+    public int apply(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        if (redWeight == null) {
+            return red[r] | green[g] | blue[b];
+        }
+        if (bySum != null) {
+            return bySum[redSum[r] + greenSum[g] + blueSum[b]];
+        }
+        return byLevel[level(redWeight[r] + greenWeight[g] + blueWeight[b], divisor)];
+    }
+
+    @Override
+    public Pipeline.PointOp forSize(int width, int height) {
+        return (rgb, col, row) -> apply(rgb);
+    }
+
+    /**
+     * Transforms every pixel of a picture, in parallel row bands.
+     *
+     * @param pic the input picture, which is not modified
+     * @return a new picture with every color transformed
+     */
+    public PixelPicture apply(PixelPicture pic) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] src = pic.pixels();
+        int[] tgt = new int[w * h];
+        TileScheduler.forEachBand(w, h, (start, end) -> apply(src, tgt, start * w, end * w));
+        return new PixelPicture(w, h, tgt);
+    }
+
+    /**
+     * Transforms {@code src[from] .. src[to - 1]} into the same positions of
+     * tgt. Each kind of transform gets its own loop, so that the loops have
+     * no branches.
+     */
+    void apply(int[] src, int[] tgt, int from, int to) {
+        int[] r = red;
+        int[] g = green;
+        int[] b = blue;
+        if (redWeight == null) {
+            for (int i = from; i < to; i++) {
+                int p = src[i];
+                tgt[i] = r[(p >> 16) & 0xFF] | g[(p >> 8) & 0xFF] | b[p & 0xFF];
+            }
+        } else if (bySum != null) {
+            int[] rs = redSum;
+            int[] gs = greenSum;
+            int[] bs = blueSum;
+            int[] out = bySum;
+            for (int i = from; i < to; i++) {
+                int p = src[i];
+                tgt[i] = out[rs[(p >> 16) & 0xFF] + gs[(p >> 8) & 0xFF] + bs[p & 0xFF]];
+            }
+        } else {
+            double[] rw = redWeight;
+            double[] gw = greenWeight;
+            double[] bw = blueWeight;
+            int[] out = byLevel;
+            boolean divide = divisor != 1.0; // x / 1.0 == x
+            for (int i = from; i < to; i++) {
+                int p = src[i];
+                double sum = rw[(p >> 16) & 0xFF] + gw[(p >> 8) & 0xFF] + bw[p & 0xFF];
+                tgt[i] = out[clip((int) Math.round(divide ? sum / divisor : sum))];
+            }
+        }
+    }
+}
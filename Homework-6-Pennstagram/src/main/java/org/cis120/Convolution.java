@@ -0,0 +1,426 @@
+package org.cis120;
+
+import java.util.Arrays;
+
+/**
+ * A convolution with a small kernel of weights, compiled for fast
+ * application.
+ *
+ * Each output component is the sum of the same component of the input
+ * pixels around it, each multiplied by the weight at its position in the
+ * kernel: with a kernel of 2a + 1 rows and 2b + 1 columns,
+ *
+ * out(row, col) = sum of k[i][j] * in(row + i - a, col + j - b)
+ *
+ * rounded to the nearest integer and, by default, clipped to [0, 255].
+ * Pixels beyond the edges of the picture count as copies of the nearest
+ * edge pixel.
+ *
+ * The weights are stored as fixed-point integers with
+ * {@link #FRACTION_BITS} bits after the point, so the sums are integer
+ * arithmetic. Kernels of integer weights (sharpen, edges, ...) are exact;
+ * other weights are off from the exact result by at most one part in
+ * 2^FRACTION_BITS per unit of weight.
+ *
+ * A kernel whose weights are the products of a column and a row of
+ * weights (k[i][j] = column[i] * row[j], as for box and gaussian blurs) is
+ * separable: it is applied as a pass of the row over each row, followed by
+ * a pass of the column over the result, which takes rows + columns
+ * multiplications per component instead of rows * columns. Separable
+ * kernels are detected when the convolution is created. The two passes
+ * round once, at the end, so they can differ from the direct sum by one
+ * step of rounding.
+ *
+ * Both passes work a band of rows at a time (see {@link TileScheduler}).
+ * Each band unpacks the input rows it needs into component arrays that are
+ * padded with copies of the edge pixels, so the inner loops have no
+ * branches and no bounds to clamp.
+ */
+public final class Convolution implements Pipeline.LocalStage {
+
+    /**
+     * The number of bits after the point of the fixed-point weights.
+     */
+    public static final int FRACTION_BITS = 12;
+
+    private static final int ONE = 1 << FRACTION_BITS;
+
+    // the largest sum of absolute weights for which 255 times the
+    // fixed-point weights (plus a half for rounding) still fits in an int
+    private static final double MAX_WEIGHT = (double) (Integer.MAX_VALUE / 2) / (255 * ONE);
+
+    /**
+     * Makes an output pixel out of the rounded sums of its three components.
+     */
+    public interface Combiner {
+        /**
+         * @param r the red sum, which may be outside [0, 255]
+         * @param g the green sum, which may be outside [0, 255]
+         * @param b the blue sum, which may be outside [0, 255]
+         * @return the packed {@code 0xRRGGBB} output pixel
+         */
+        int combine(int r, int g, int b);
+    }
+
+    /**
+     * The usual combiner, which clips each sum to [0, 255].
+     */
+    public static final Combiner CLIP = (r, g, b) -> (clip(r) << 16) | (clip(g) << 8) | clip(b);
+
+    private final int rows;
+    private final int cols;
+
+    // fixed-point weights, row by row
+    private final int[] weights;
+
+    // if separable: the fixed-point factors of the weights, or else null
+    private final int[] columnWeights;
+    private final int[] rowWeights;
+
+    private Convolution(int rows, int cols, int[] weights, int[] columnWeights, int[] rowWeights) {
+        this.rows = rows;
+        this.cols = cols;
+        this.weights = weights;
+        this.columnWeights = columnWeights;
+        this.rowWeights = rowWeights;
+    }
+
+    /**
+     * A convolution with the given kernel. The kernel must have an odd
+     * number of rows and of columns, so that it has a center. For example,
+     * {@code of(new double[][] {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}})}
+     * sharpens a picture.
+     *
+     * @param kernel the weights, row by row; the array is copied
+     * @return the compiled convolution
+     * @throws IllegalArgumentException if the kernel is empty, ragged or of
+     *                                  even size, or its weights are so
+     *                                  large that the sums could overflow
+     */
+    public static Convolution of(double[][] kernel) {
+        int rows = kernel.length;
+        int cols = rows == 0 ? 0 : kernel[0].length;
+        if (rows % 2 == 0 || cols % 2 == 0) {
+            throw new IllegalArgumentException(
+                    "kernel must have an odd number of rows and columns, got " + rows + " x "
+                            + cols
+            );
+        }
+        double total = 0;
+        int[] weights = new int[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            if (kernel[i].length != cols) {
+                throw new IllegalArgumentException("kernel rows must all have the same length");
+            }
+            for (int j = 0; j < cols; j++) {
+                total += Math.abs(kernel[i][j]);
+                weights[i * cols + j] = fixed(kernel[i][j]);
+            }
+        }
+        checkWeight(total);
+
+        // separable if every row is a multiple of the row holding the
+        // largest weight
+        int pi = 0;
+        int pj = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                if (Math.abs(kernel[i][j]) > Math.abs(kernel[pi][pj])) {
+                    pi = i;
+                    pj = j;
+                }
+            }
+        }
+        double pivot = kernel[pi][pj];
+        if (pivot == 0 || rows == 1 || cols == 1) {
+            return new Convolution(rows, cols, weights, null, null);
+        }
+        double[] column = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            column[i] = kernel[i][pj] / pivot;
+            for (int j = 0; j < cols; j++) {
+                if (Math.abs(kernel[i][j] - column[i] * kernel[pi][j]) > 1e-9 * Math.abs(pivot)) {
+                    return new Convolution(rows, cols, weights, null, null);
+                }
+            }
+        }
+        return new Convolution(rows, cols, weights, fixed(column), fixed(kernel[pi]));
+    }
+
+    /**
+     * A separable convolution, with kernel {@code k[i][j] = column[i] *
+     * row[j]}.
+     *
+     * @param column the vertical weights, of odd length
+     * @param row    the horizontal weights, of odd length
+     * @return the compiled convolution
+     * @throws IllegalArgumentException as {@link #of}
+     */
+    public static Convolution separable(double[] column, double[] row) {
+        double[][] kernel = new double[column.length][row.length];
+        for (int i = 0; i < column.length; i++) {
+            for (int j = 0; j < row.length; j++) {
+                kernel[i][j] = column[i] * row[j];
+            }
+        }
+        Convolution c = of(kernel);
+        if (c.isSeparable()) {
+            return c;
+        }
+        // a kernel of zeros, say: use the factors as given
+        checkWeight(sum(column));
+        checkWeight(sum(row));
+        return new Convolution(c.rows, c.cols, c.weights, fixed(column), fixed(row));
+    }
+
+    private static int fixed(double w) {
+        return (int) Math.round(w * ONE);
+    }
+
+    private static int[] fixed(double[] ws) {
+        int[] f = new int[ws.length];
+        for (int i = 0; i < ws.length; i++) {
+            f[i] = fixed(ws[i]);
+        }
+        return f;
+    }
+
+    private static double sum(double[] ws) {
+        double s = 0;
+        for (double w : ws) {
+            s += Math.abs(w);
+        }
+        return s;
+    }
+
+    private static void checkWeight(double total) {
+        if (!(total <= MAX_WEIGHT)) {
+            throw new IllegalArgumentException("kernel weights are too large: " + total);
+        }
+    }
+
+    private static int clip(int c) {
+        return Math.max(0, Math.min(255, c));
+    }
+
+    /**
+     * @return true if the convolution runs as a row pass and a column pass
+     */
+    public boolean isSeparable() {
+        return rowWeights != null;
+    }
+
+    @Override
+    public int radius() {
+        return Math.max(rows, cols) / 2;
+    }
+
+    /**
+     * Convolves a picture, clipping each output component to [0, 255].
+     *
+     * @param pic the input picture, which is not modified
+     * @return the convolved picture
+     */
+    @Override
+    public PixelPicture apply(PixelPicture pic) {
+        return apply(pic, CLIP);
+    }
+
+    /**
+     * Convolves a picture, making each output pixel out of the component
+     * sums with {@code combiner}.
+     *
+     * @param pic      the input picture, which is not modified
+     * @param combiner makes the output pixels
+     * @return the convolved picture
+     */
+    public PixelPicture apply(PixelPicture pic, Combiner combiner) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        return new PixelPicture(w, h, apply(pic.pixels(), w, h, combiner));
+    }
+
+    /**
+     * Convolves the w x h pixels of src into a new array, running separable
+     * kernels as two passes.
+     */
+    int[] apply(int[] src, int w, int h, Combiner combiner) {
+        return apply(src, w, h, combiner, isSeparable());
+    }
+
+    /**
+     * Convolves the w x h pixels of src into a new array, running separable
+     * kernels as two passes only if {@code separate} is true. Only the tests
+     * choose the path, to check that both give the same result.
+     */
+    int[] apply(int[] src, int w, int h, Combiner combiner, boolean separate) {
+        int[] tgt = new int[w * h];
+        if (separate && !isSeparable()) {
+            throw new IllegalStateException("not a separable kernel");
+        }
+        // each band loads the rows around its first row, so keep bands at
+        // least as tall as the kernel
+        TileScheduler.forEachBand(w, h, rows, (start, end) -> {
+            if (separate) {
+                separableRows(src, tgt, w, h, combiner, start, end);
+            } else {
+                directRows(src, tgt, w, h, combiner, start, end);
+            }
+        });
+        return tgt;
+    }
+
+    /**
+     * Convolves rows [start, end) of src into tgt with the full kernel.
+     *
+     * The input rows under the kernel are kept unpacked and padded in a
+     * ring of {@code rows} slots, indexed by row number modulo the number of
+     * slots: the rows under the kernel are consecutive (or repeated at the
+     * top and bottom edges), so they never share a slot. Each output row
+     * adds up its kernel one weight at a time, over the whole row.
+     */
+    private void directRows(
+            int[] src, int[] tgt, int w, int h, Combiner combiner, int start, int end
+    ) {
+        int ry = rows / 2;
+        int pw = w + cols - 1;
+        int[][] red = new int[rows][pw];
+        int[][] green = new int[rows][pw];
+        int[][] blue = new int[rows][pw];
+        int[] loaded = new int[rows];
+        Arrays.fill(loaded, -1);
+        int[] accR = new int[w];
+        int[] accG = new int[w];
+        int[] accB = new int[w];
+
+        for (int y = start; y < end; y++) {
+            Arrays.fill(accR, ONE / 2);
+            Arrays.fill(accG, ONE / 2);
+            Arrays.fill(accB, ONE / 2);
+            for (int i = 0; i < rows; i++) {
+                int sy = Math.max(0, Math.min(h - 1, y + i - ry));
+                int slot = sy % rows;
+                if (loaded[slot] != sy) {
+                    unpack(src, w, sy, cols / 2, red[slot], green[slot], blue[slot]);
+                    loaded[slot] = sy;
+                }
+                int[] r = red[slot];
+                int[] g = green[slot];
+                int[] b = blue[slot];
+                for (int j = 0; j < cols; j++) {
+                    int k = weights[i * cols + j];
+                    if (k == 0) {
+                        continue;
+                    }
+                    for (int x = 0; x < w; x++) {
+                        accR[x] += k * r[x + j];
+                        accG[x] += k * g[x + j];
+                        accB[x] += k * b[x + j];
+                    }
+                }
+            }
+            int o = y * w;
+            for (int x = 0; x < w; x++) {
+                tgt[o + x] = combiner.combine(
+                        accR[x] >> FRACTION_BITS, accG[x] >> FRACTION_BITS,
+                        accB[x] >> FRACTION_BITS
+                );
+            }
+        }
+    }
+
+    /**
+     * Convolves rows [start, end) of src into tgt as a row pass and a column
+     * pass. The ring holds input rows after the row pass, with weights
+     * still in fixed point; the column pass multiplies in the second set of
+     * fixed-point weights, so it sums in longs.
+     */
+    private void separableRows(
+            int[] src, int[] tgt, int w, int h, Combiner combiner, int start, int end
+    ) {
+        int ry = rows / 2;
+        int pw = w + cols - 1;
+        int[] r = new int[pw];
+        int[] g = new int[pw];
+        int[] b = new int[pw];
+        int[][] red = new int[rows][w];
+        int[][] green = new int[rows][w];
+        int[][] blue = new int[rows][w];
+        int[] loaded = new int[rows];
+        Arrays.fill(loaded, -1);
+        long[] accR = new long[w];
+        long[] accG = new long[w];
+        long[] accB = new long[w];
+        int shift = 2 * FRACTION_BITS;
+        long half = 1L << (shift - 1);
+
+        for (int y = start; y < end; y++) {
+            Arrays.fill(accR, half);
+            Arrays.fill(accG, half);
+            Arrays.fill(accB, half);
+            for (int i = 0; i < rows; i++) {
+                int sy = Math.max(0, Math.min(h - 1, y + i - ry));
+                int slot = sy % rows;
+                int[] hr = red[slot];
+                int[] hg = green[slot];
+                int[] hb = blue[slot];
+                if (loaded[slot] != sy) {
+                    unpack(src, w, sy, cols / 2, r, g, b);
+                    Arrays.fill(hr, 0);
+                    Arrays.fill(hg, 0);
+                    Arrays.fill(hb, 0);
+                    for (int j = 0; j < cols; j++) {
+                        int k = rowWeights[j];
+                        if (k == 0) {
+                            continue;
+                        }
+                        for (int x = 0; x < w; x++) {
+                            hr[x] += k * r[x + j];
+                            hg[x] += k * g[x + j];
+                            hb[x] += k * b[x + j];
+                        }
+                    }
+                    loaded[slot] = sy;
+                }
+                long k = columnWeights[i];
+                if (k == 0) {
+                    continue;
+                }
+                for (int x = 0; x < w; x++) {
+                    accR[x] += k * hr[x];
+                    accG[x] += k * hg[x];
+                    accB[x] += k * hb[x];
+                }
+            }
+            int o = y * w;
+            for (int x = 0; x < w; x++) {
+                tgt[o + x] = combiner.combine(
+                        (int) (accR[x] >> shift), (int) (accG[x] >> shift),
+                        (int) (accB[x] >> shift)
+                );
+            }
+        }
+    }
+
+    /**
+     * Unpacks row y of src into r, g and b, starting at index pad, and
+     * fills the pad entries on either side with copies of the edge pixels.
+     */
+    private static void unpack(int[] src, int w, int y, int pad, int[] r, int[] g, int[] b) {
+        int i = y * w;
+        for (int x = 0; x < w; x++, i++) {
+            int p = src[i];
+            r[pad + x] = (p >> 16) & 0xFF;
+            g[pad + x] = (p >> 8) & 0xFF;
+            b[pad + x] = p & 0xFF;
+        }
+        for (int x = 0; x < pad; x++) {
+            r[x] = r[pad];
+            g[x] = g[pad];
+            b[x] = b[pad];
+            r[pad + w + x] = r[pad + w - 1];
+            g[pad + w + x] = g[pad + w - 1];
+            b[pad + w + x] = b[pad + w - 1];
+        }
+    }
+}
@@ -10,69 +10,86 @@ package org.cis120;
  */
 public class Effects {
 
-    public static PixelPicture eighteenNinety(PixelPicture p) {
-        // create a gray-scale version of the image
-        PixelPicture gray = SimpleManipulations.grayScaleLuminosity(p);
-        // color the gray-scale version in a sepia tone
-        PixelPicture sepia = SimpleManipulations.scaleColors(gray, 1.0, 0.95, 0.75);
-        // add vignetting, blend in so not so intense
-        PixelPicture vign = SimpleManipulations.vignette(sepia);
-        PixelPicture blend = SimpleManipulations.alphaBlend(0.5, sepia, vign);
+    /*
+     * The presets are written as Pipelines so that their per-pixel steps run
+     * in a single pass over the image. Each one produces exactly the same
+     * picture as calling the corresponding manipulations one after another,
+     * as described in the comments.
+     */
+
+    private static final Pipeline EIGHTEEN_NINETY = new Pipeline()
+            // create a gray-scale version of the image
+            .then(SimpleManipulations.grayScaleLuminosityStage())
+            // color the gray-scale version in a sepia tone
+            .then(SimpleManipulations.scaleColorsStage(1.0, 0.95, 0.75))
+            // add vignetting, blend in so not so intense
+            .then(Pipeline.blend(0.5, Pipeline.IDENTITY, SimpleManipulations.vignetteStage()))
+            // increase the brightness of the image to counteract
+            // the vignetting
+            .then(SimpleManipulations.scaleColorsStage(1.1, 1.1, 1.1));
+
+    private static final Pipeline PIN_HOLE = new Pipeline()
+            .then(SimpleManipulations.scaleColorsStage(1.0, 0.95, 0.75))
+            .then(SimpleManipulations.scaleColorsStage(1.1, 1.1, 1.0))
+            .then(SimpleManipulations.vignetteStage())
+            .then(AdvancedManipulations.blurStage(1))
+            .then(p -> SimpleManipulations.border(p, 10, Pixel.WHITE));
+
+    private static final Pipeline ZOMBIE = new Pipeline()
+            .then(
+                    Pipeline.blend(
+                            0.7,
+                            // desaturate by blending in grayscale version
+                            Pipeline.blend(
+                                    0.2, Pipeline.IDENTITY,
+                                    SimpleManipulations.grayScaleLuminosityStage()
+                            ),
+                            // add purplish cast
+                            Pipeline.compose(
+                                    SimpleManipulations.grayScaleLuminosityStage(),
+                                    SimpleManipulations.scaleColorsStage(
+                                            34.0 / 255, 43.0 / 255, 109.0 / 255
+                                    )
+                            )
+                    )
+            )
+            // up the contrast
+            .then(p -> AdvancedManipulations.adjustContrast(p, 3.0))
+            // put a black border around it
+            .then(p -> SimpleManipulations.border(p, 20, Pixel.BLACK));
+
+    private static final Pipeline PLASTIC = new Pipeline()
+            // significantly increase the contrast
+            .then(p -> AdvancedManipulations.adjustContrast(p, 3.0))
+            // add a vignette
+            .then(SimpleManipulations.vignetteStage());
+
+    private static final Pipeline PEACHES = new Pipeline()
+            // Make everything brighter
+            .then(SimpleManipulations.scaleColorsStage(1.2, 1.2, 1.2))
+            // reduce the palette
+            .then(p -> AdvancedManipulations.reducePalette(p, 512))
+            // add a peach tint to the image
+            .then(SimpleManipulations.scaleColorsStage(1.0, 229.0 / 255, 180.0 / 255));
 
-        // increase the brightness of the image to counteract
-        // the vignetting
-        PixelPicture lighten = SimpleManipulations.scaleColors(blend, 1.1, 1.1, 1.1);
-        return lighten;
+    public static PixelPicture eighteenNinety(PixelPicture p) {
+        return EIGHTEEN_NINETY.apply(p);
     }
 
     public static PixelPicture pinHole(PixelPicture p) {
-        PixelPicture p1 = SimpleManipulations.scaleColors(p, 1.0, 0.95, 0.75);
-        PixelPicture p2 = SimpleManipulations.scaleColors(p1, 1.1, 1.1, 1.0);
-        PixelPicture p3 = SimpleManipulations.vignette(p2);
-        PixelPicture p4 = AdvancedManipulations.blur(p3, 1);
-        PixelPicture p5 = SimpleManipulations.border(
-                p4, 10,
-                new Pixel(255, 255, 255)
-        );
-        return p5;
+        return PIN_HOLE.apply(p);
     }
 
     public static PixelPicture zombie(PixelPicture p) {
-        // desaturate by blending in grayscale version
-        PixelPicture gray = SimpleManipulations.grayScaleLuminosity(p);
-        PixelPicture p1 = SimpleManipulations.alphaBlend(0.2, p, gray);
-
-        // add purplish cast
-        PixelPicture purples = SimpleManipulations
-                .scaleColors(gray, 34.0 / 255, 43.0 / 255, 109.0 / 255);
-        p1 = SimpleManipulations.alphaBlend(0.7, p1, purples);
-
-        // up the contrast
-        p1 = AdvancedManipulations.adjustContrast(p1, 3.0);
-
-        // put a black border around it
-        p1 = SimpleManipulations.border(p1, 20, new Pixel(0, 0, 0));
-        return p1;
+        return ZOMBIE.apply(p);
     }
 
     public static PixelPicture plastic(PixelPicture p) {
-        // significantly increase the contrast
-        PixelPicture p1 = AdvancedManipulations.adjustContrast(p, 3.0);
-        // add a vignette
-        p1 = SimpleManipulations.vignette(p1);
-        return p1;
+        return PLASTIC.apply(p);
     }
 
     public static PixelPicture peaches(PixelPicture p) {
-        // Make everything brighter
-        PixelPicture p1 = SimpleManipulations.scaleColors(p, 1.2, 1.2, 1.2);
-
-        // reduce the palette
-        p1 = AdvancedManipulations.reducePalette(p1, 512);
-
-        // add a peach tint to the image
-        PixelPicture peach = SimpleManipulations.scaleColors(p1, 1.0, 229.0 / 255, 180.0 / 255);
-        return peach;
+        return PEACHES.apply(p);
     }
 
     // Create your own effect here! If it is cool,
@@ -5,6 +5,10 @@ import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.swing.Box;
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -13,9 +17,8 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.event.MouseInputAdapter;
-import java.util.Deque;
-import java.util.LinkedList;
 
 /**
  * The graphical user interface for the Pennstagram project.
@@ -28,15 +31,44 @@ public class GUI implements Runnable {
     private final String defaultImageURL = "images/Italy.png";
     private PixelPicture currentPic = new PixelPicture(defaultImageURL);
 
-    private Deque<PixelPicture> images = new LinkedList<PixelPicture>();
+    // earlier versions of the picture, for undo; only used on the history
+    // thread
+    private UndoHistory images = new UndoHistory();
 
-    private final JLabel imageLabel = new JLabel(currentPic.toImageIcon());
+    // draws the current picture, pushing only what changed to the screen
+    private final PictureDisplay display = new PictureDisplay(currentPic);
 
     private final JFrame frame = new JFrame("Pennstagram");
 
+    // manipulations run one at a time on this thread, so that the window
+    // stays responsive while they work
+    private final ExecutorService renderer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pennstagram-render");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // pushing a version copies and compares all of its tiles (and may
+    // compress old ones), so the history is kept on a thread of its own
+    // rather than the event thread; tasks run in the order they are given
+    private final ExecutorService history = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pennstagram-history");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // the manipulation in progress, if any
+    private SwingWorker<PixelPicture, PixelPicture> rendering;
+
+    private final JButton cancel = new JButton("Cancel");
+
+    // previews are shrunk until neither side is longer than this
+    private static final int PREVIEW_SIZE = 320;
+
     // update the currently displayed image, saving the old version for undo.
     private void changeImage(PixelPicture pnew) {
         if (pnew != null & pnew == currentPic) {
+            show(currentPic); // in case a preview is displayed
             JOptionPane.showMessageDialog(
                     frame,
                     "This operation has no effect (yet).\n",
@@ -44,16 +76,109 @@ public class GUI implements Runnable {
                     JOptionPane.ERROR_MESSAGE
             );
         } else {
-            if (currentPic != null) {
-                images.push(currentPic);
+            PixelPicture old = currentPic;
+            if (old != null) {
+                history.execute(() -> images.push(old));
             }
             currentPic = pnew;
-            imageLabel.setIcon(currentPic.toImageIcon());
-            imageLabel.repaint();
+            show(currentPic);
+        }
+    }
+
+    // display a picture stretched to a size, without making it the current
+    // one; it is scaled while painting, so no enlarged copy is made
+    private void show(PixelPicture pic, int width, int height) {
+        display.showStretched(pic, width, height);
+    }
+
+    // display a picture without making it the current one
+    private void show(PixelPicture pic) {
+        PixelPicture shown = display.getPicture();
+        display.show(pic);
+        if (pic.getWidth() != shown.getWidth() || pic.getHeight() != shown.getHeight()) {
             frame.pack();
         }
     }
 
+    /*
+     * Apply a manipulation to the current picture in the background, and make
+     * the result the current picture when it is done. Any manipulation already
+     * in progress is cancelled.
+     *
+     * If previewable is true and the picture is large, the manipulation is
+     * first applied to a level of the picture's pyramid (see
+     * PixelPicture.level), and that result is displayed (stretched back to
+     * size) while the full one is computed. The levels are kept with the
+     * picture, so trying out several manipulations on the same picture only
+     * shrinks it once. Only
+     * manipulations that look about the same at any resolution should be
+     * previewed; a blur or border, for example, is measured in pixels.
+     *
+     * Cancelling only discards the result: the manipulations do not check for
+     * interruption, so the work in progress runs to completion.
+     */
+    private void render(final Pipeline.PictureStage op, final boolean previewable) {
+        cancelRendering();
+        final PixelPicture source = currentPic;
+
+        SwingWorker<PixelPicture, PixelPicture> worker;
+        worker = new SwingWorker<PixelPicture, PixelPicture>() {
+            @Override
+            protected PixelPicture doInBackground() {
+                if (previewable) {
+                    PixelPicture level = source.levelAtMost(PREVIEW_SIZE);
+                    if (level != source) {
+                        publish(op.apply(level));
+                    }
+                }
+                return op.apply(source);
+            }
+
+            @Override
+            protected void process(List<PixelPicture> previews) {
+                if (rendering == this) {
+                    PixelPicture preview = previews.get(previews.size() - 1);
+                    show(preview, source.getWidth(), source.getHeight());
+                }
+            }
+
+            @Override
+            protected void done() {
+                if (rendering != this) {
+                    return; // superseded or cancelled
+                }
+                rendering = null;
+                cancel.setEnabled(false);
+                try {
+                    changeImage(get());
+                } catch (InterruptedException | ExecutionException ex) {
+                    show(currentPic);
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(
+                            frame,
+                            "Cannot apply this operation\n" + cause,
+                            "Alert",
+                            JOptionPane.ERROR_MESSAGE
+                    );
+                }
+            }
+        };
+        rendering = worker;
+        cancel.setEnabled(true);
+        renderer.execute(worker);
+    }
+
+    // stop waiting for the manipulation in progress, if any, and take down
+    // its preview
+    private void cancelRendering() {
+        if (rendering != null) {
+            rendering.cancel(true);
+            rendering = null;
+            show(currentPic);
+        }
+        cancel.setEnabled(false);
+    }
+
     /**
      * Construct the "menubar"
      * 
@@ -75,6 +200,7 @@ public class GUI implements Runnable {
         menubar.add(load);
         menubar.add(save);
         menubar.add(undo);
+        menubar.add(cancel);
         menubar.add(quit);
 
         load.addActionListener(new ActionListener() {
@@ -88,8 +214,9 @@ public class GUI implements Runnable {
                 );
                 try {
                     if (result != null) {
+                        cancelRendering();
                         changeImage(new PixelPicture(result));
-                        images.clear();
+                        history.execute(images::clear);
                     }
                 } catch (RuntimeException ex) {
                     JOptionPane.showMessageDialog(
@@ -121,19 +248,31 @@ public class GUI implements Runnable {
                 }
             }
         });
+        cancel.setEnabled(false);
+        cancel.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                cancelRendering();
+            }
+        });
         undo.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                if (!images.isEmpty()) {
-                    currentPic = null;
-                    changeImage(images.removeFirst());
-                } else {
-                    JOptionPane.showMessageDialog(
-                            frame,
-                            "No more steps to undo",
-                            "Alert",
-                            JOptionPane.ERROR_MESSAGE
-                    );
-                }
+                cancelRendering();
+                history.execute(() -> {
+                    PixelPicture previous = images.isEmpty() ? null : images.pop();
+                    SwingUtilities.invokeLater(() -> {
+                        if (previous != null) {
+                            currentPic = null;
+                            changeImage(previous);
+                        } else {
+                            JOptionPane.showMessageDialog(
+                                    frame,
+                                    "No more steps to undo",
+                                    "Alert",
+                                    JOptionPane.ERROR_MESSAGE
+                            );
+                        }
+                    });
+                });
             }
         });
         quit.addActionListener(new ActionListener() {
@@ -149,6 +288,8 @@ public class GUI implements Runnable {
         toolbar.setLayout(new GridLayout(0, 1));
         final JButton rotateCW = new JButton("RotateCW");
         final JButton rotateCCW = new JButton("RotateCCW");
+        final JButton mirrorH = new JButton("Mirror horizontal");
+        final JButton mirrorV = new JButton("Mirror vertical");
 
         final JButton border = new JButton("Border");
         final JButton transform = new JButton("Simple transform");
@@ -159,10 +300,15 @@ public class GUI implements Runnable {
         final JButton contrast = new JButton("Contrast");
         final JButton palette = new JButton("Reduce palette");
         final JButton blur = new JButton("Blur");
+        final JButton emboss = new JButton("Emboss");
+        final JButton sharpen = new JButton("Sharpen");
+        final JButton edges = new JButton("Edges");
         final JButton flood = new JButton("Flood");
 
         toolbar.add(rotateCW);
         toolbar.add(rotateCCW);
+        toolbar.add(mirrorH);
+        toolbar.add(mirrorV);
 
         toolbar.add(border);
         toolbar.add(transform);
@@ -173,12 +319,14 @@ public class GUI implements Runnable {
         toolbar.add(vignette);
 
         toolbar.add(blur);
+        toolbar.add(emboss);
+        toolbar.add(sharpen);
+        toolbar.add(edges);
         toolbar.add(flood);
 
         border.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent arg0) {
-                PixelPicture pn = SimpleManipulations.border(currentPic, 10, Pixel.BLACK);
-                changeImage(pn);
+                render(p -> SimpleManipulations.border(p, 10, Pixel.BLACK), false);
             }
 
         });
@@ -213,7 +361,10 @@ public class GUI implements Runnable {
                         r = Double.parseDouble(rField.getText());
                         g = Double.parseDouble(gField.getText());
                         b = Double.parseDouble(bField.getText());
-                        changeImage(SimpleManipulations.scaleColors(currentPic, r, g, b));
+                        final double rs = r;
+                        final double gs = g;
+                        final double bs = b;
+                        render(p -> SimpleManipulations.scaleColors(p, rs, gs, bs), true);
                     } else {
                         return;
                     }
@@ -239,12 +390,8 @@ public class GUI implements Runnable {
                 );
                 try {
                     if (result != null) {
-                        changeImage(
-                                SimpleManipulations.alphaBlend(
-                                        0.3,
-                                        currentPic, new PixelPicture(result)
-                                )
-                        );
+                        final PixelPicture other = new PixelPicture(result);
+                        render(p -> SimpleManipulations.alphaBlend(0.3, p, other), false);
                     }
                 } catch (RuntimeException ex) {
                     JOptionPane.showMessageDialog(
@@ -259,22 +406,25 @@ public class GUI implements Runnable {
 
         rotateCW.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                try {
-                    changeImage(SimpleManipulations.rotateCW(currentPic));
-                } catch (UnsupportedOperationException ex) {
-                    JOptionPane.showMessageDialog(
-                            frame,
-                            "Make sure to fully implement the Pixel class!",
-                            "Alert",
-                            JOptionPane.ERROR_MESSAGE
-                    );
-                }
+                render(SimpleManipulations::rotateCW, true);
             }
         });
 
         rotateCCW.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                changeImage(SimpleManipulations.rotateCCW(currentPic));
+                render(SimpleManipulations::rotateCCW, true);
+            }
+        });
+
+        mirrorH.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                render(SimpleManipulations::mirrorHorizontal, true);
+            }
+        });
+
+        mirrorV.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                render(SimpleManipulations::mirrorVertical, true);
             }
         });
 
@@ -297,23 +447,18 @@ public class GUI implements Runnable {
                     return;
                 }
 
-                PixelPicture pnew = null;
                 if (result.equals("ColorInvert")) {
-                    pnew = SimpleManipulations.invertColors(currentPic);
+                    render(SimpleManipulations::invertColors, true);
                 } else if (result.equals("GrayScaleAverage")) {
-                    pnew = SimpleManipulations.grayScaleAverage(currentPic);
+                    render(SimpleManipulations::grayScaleAverage, true);
                 } else if (result.equals("GrayScaleLuminosity")) {
-                    pnew = SimpleManipulations.grayScaleLuminosity(currentPic);
-                }
-
-                if (pnew != null) {
-                    changeImage(pnew);
+                    render(SimpleManipulations::grayScaleLuminosity, true);
                 }
             }
         });
         vignette.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                changeImage(SimpleManipulations.vignette(currentPic));
+                render(SimpleManipulations::vignette, true);
             }
         });
         blur.addActionListener(new ActionListener() {
@@ -336,7 +481,7 @@ public class GUI implements Runnable {
                             );
                             return;
                         }
-                        changeImage(AdvancedManipulations.blur(currentPic, radius));
+                        render(p -> AdvancedManipulations.blur(p, radius), false);
                     }
                 } catch (NumberFormatException ex) {
                     JOptionPane.showMessageDialog(
@@ -348,6 +493,23 @@ public class GUI implements Runnable {
                 }
             }
         });
+        // these compare each pixel with its neighbors, so they are not
+        // previewed on a shrunken picture
+        emboss.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                render(AdvancedManipulations::emboss, false);
+            }
+        });
+        sharpen.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                render(AdvancedManipulations::sharpen, false);
+            }
+        });
+        edges.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                render(AdvancedManipulations::edges, false);
+            }
+        });
         flood.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 JOptionPane.showMessageDialog(
@@ -374,7 +536,7 @@ public class GUI implements Runnable {
                     if (result != null) {
                         double d = Double.parseDouble(result);
                         if (d >= 0.0 && d <= 255.0) {
-                            changeImage(AdvancedManipulations.adjustContrast(currentPic, d));
+                            render(p -> AdvancedManipulations.adjustContrast(p, d), true);
                         } else {
                             throw new NumberFormatException();
                         }
@@ -409,7 +571,22 @@ public class GUI implements Runnable {
                             );
 
                         } else {
-                            changeImage(AdvancedManipulations.reducePalette(currentPic, i));
+                            String mode = (String) JOptionPane.showInputDialog(
+                                    frame,
+                                    "Choose how to pick the colors.",
+                                    "Palette",
+                                    JOptionPane.PLAIN_MESSAGE,
+                                    null,
+                                    new String[] { "Most frequent", "Octree" },
+                                    "Most frequent"
+                            );
+                            if (mode == null) {
+                                return;
+                            }
+                            AdvancedManipulations.PaletteMode m = mode.equals("Octree")
+                                    ? AdvancedManipulations.PaletteMode.OCTREE
+                                    : AdvancedManipulations.PaletteMode.MOST_FREQUENT;
+                            render(p -> AdvancedManipulations.reducePalette(p, i, m), true);
                         }
                     }
                 } catch (NumberFormatException ex) {
@@ -438,14 +615,15 @@ public class GUI implements Runnable {
         effectbar.add(eighteenNinety);
         eighteenNinety.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent arg0) {
-                changeImage(Effects.eighteenNinety(currentPic));
+                render(Effects::eighteenNinety, true);
             }
         });
         JButton pinHole = new JButton("Pin Hole");
         effectbar.add(pinHole);
         pinHole.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent arg0) {
-                changeImage(Effects.pinHole(currentPic));
+                // the border and blur are measured in pixels
+                render(Effects::pinHole, false);
             }
         });
 
@@ -453,7 +631,7 @@ public class GUI implements Runnable {
         effectbar.add(zombie);
         zombie.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent arg0) {
-                changeImage(Effects.zombie(currentPic));
+                render(Effects::zombie, true);
             }
         });
 
@@ -461,7 +639,7 @@ public class GUI implements Runnable {
         effectbar.add(plastic);
         plastic.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                changeImage(Effects.plastic(currentPic));
+                render(Effects::plastic, true);
             }
         });
 
@@ -469,7 +647,7 @@ public class GUI implements Runnable {
         effectbar.add(peaches);
         peaches.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                changeImage(Effects.peaches(currentPic));
+                render(Effects::peaches, true);
             }
         });
 
@@ -477,7 +655,7 @@ public class GUI implements Runnable {
         effectbar.add(custom);
         custom.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                changeImage(Effects.custom(currentPic));
+                render(Effects::custom, true);
             }
         });
 
@@ -503,16 +681,13 @@ public class GUI implements Runnable {
         frame.add(rightSide, BorderLayout.LINE_END);
 
         // Add mouse listener to the image itself for floodfill
-        imageArea.add(imageLabel);
-        imageLabel.addMouseListener(new MouseInputAdapter() {
+        imageArea.add(display);
+        display.addMouseListener(new MouseInputAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
-                changeImage(
-                        AdvancedManipulations.flood(
-                                currentPic,
-                                new Pixel(255, 0, 0), e.getY(), e.getX()
-                        )
-                );
+                final int row = e.getY();
+                final int col = e.getX();
+                render(p -> AdvancedManipulations.flood(p, Pixel.RED, row, col), false);
             }
         });
 
@@ -0,0 +1,169 @@
+package org.cis120;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from non-negative ints to ints, such as from packed
+ * {@code 0xRRGGBB} colors to their frequencies.
+ *
+ * Keys and values are stored in two flat int arrays using open addressing
+ * with linear probing, so there are no boxed Integers and no entry objects,
+ * and a lookup usually touches a single cache line.
+ */
+public class IntIntMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size = 0;
+
+    /**
+     * Creates an empty map.
+     */
+    public IntIntMap() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty map with room for about {@code expected} keys before it
+     * has to grow.
+     *
+     * @param expected the expected number of keys
+     */
+    public IntIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * The slot holding key, or the empty slot where it would go.
+     */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int h = key * 0x9E3779B9;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private static void checkKey(int key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("keys must be non-negative, got " + key);
+        }
+    }
+
+    /**
+     * Retrieves the value for a key.
+     *
+     * @param key     The key to look up.
+     * @param missing The value to return if the key is not in the map.
+     * @return The value stored for the key, or {@code missing}.
+     */
+    public int get(int key, int missing) {
+        checkKey(key);
+        int i = slot(key);
+        return keys[i] == EMPTY ? missing : values[i];
+    }
+
+    /**
+     * Determine whether the map contains a given key.
+     *
+     * @param key The key to check for existence.
+     * @return true if the map contains the key; false otherwise.
+     */
+    public boolean containsKey(int key) {
+        checkKey(key);
+        return keys[slot(key)] != EMPTY;
+    }
+
+    /**
+     * Adds an element to the map or updates its value if the key already
+     * exists.
+     *
+     * @param key   The key, which must be non-negative.
+     * @param value The value.
+     */
+    public void put(int key, int value) {
+        checkKey(key);
+        int i = slot(key);
+        if (keys[i] == EMPTY) {
+            keys[i] = key;
+            values[i] = value;
+            grow();
+        } else {
+            values[i] = value;
+        }
+    }
+
+    /**
+     * Adds {@code delta} to the value of a key, treating a missing key as 0.
+     *
+     * @param key   The key, which must be non-negative.
+     * @param delta The amount to add.
+     * @return The new value of the key.
+     */
+    public int add(int key, int delta) {
+        checkKey(key);
+        int i = slot(key);
+        if (keys[i] == EMPTY) {
+            keys[i] = key;
+            values[i] = delta;
+            grow();
+            return delta;
+        }
+        values[i] += delta;
+        return values[i];
+    }
+
+    /**
+     * The number of keys in the map.
+     *
+     * @return The number of keys in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the keys of the map, in no particular order.
+     *
+     * @return A new array holding every key in the map.
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int k : keys) {
+            if (k != EMPTY) {
+                result[n++] = k;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Counts a newly inserted key, doubling the table when it is half full.
+     */
+    private void grow() {
+        size++;
+        if (size * 2 <= keys.length) {
+            return;
+        }
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != EMPTY) {
+                int i = slot(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.cis120;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A last-in, first-out stack of ints backed by a growable array.
+ *
+ * Unlike a {@code Deque<Integer>} or the PointQueue, pushing and popping
+ * does not allocate anything (except when the array has to grow), which
+ * makes it suitable as the work list of algorithms that visit every pixel
+ * of an image, such as flood fill.
+ */
+public class IntStack {
+
+    private int[] elements = new int[16];
+    private int size = 0;
+
+    /**
+     * Push a value on top of the stack.
+     *
+     * @param v The value to push.
+     */
+    public void push(int v) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = v;
+    }
+
+    /**
+     * Remove the value on top of the stack.
+     *
+     * @return The value that was most recently pushed.
+     * @throws NoSuchElementException if the stack is empty
+     */
+    public int pop() {
+        if (size == 0) {
+            throw new NoSuchElementException("pop from an empty stack");
+        }
+        return elements[--size];
+    }
+
+    /**
+     * Determine whether the stack is empty.
+     *
+     * @return true if the stack is empty; false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Retrieves the size of the stack.
+     *
+     * @return The number of values on the stack.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,222 @@
+package org.cis120;
+
+import java.util.Arrays;
+
+/**
+ * Chooses a palette for a picture by octree quantization, for
+ * {@link AdvancedManipulations#reducePalette(PixelPicture, int,
+ * AdvancedManipulations.PaletteMode)}.
+ *
+ * The RGB cube is an octree: the root is the whole cube, and the eight
+ * children of a node at level l split it in half along each component,
+ * according to bit 7 - l of the components. A leaf at level 8 is a single
+ * color. Each pixel is added to the leaf it falls in, which keeps the sum
+ * of the components and the number of pixels added to it. Whenever there
+ * are more leaves than the palette may have colors, the deepest internal
+ * node (the most recently created one, among those of the deepest level)
+ * absorbs its children, which are all leaves, and becomes a leaf itself.
+ * Pixels that fall in it from then on stop there. At the end, each leaf
+ * contributes the average of its pixels to the palette.
+ *
+ * So the pixels are read once, each one walks at most 8 levels down, and
+ * the tree never holds more than a few nodes per palette color, however
+ * many colors the picture has. Unlike picking the most frequent colors,
+ * which only counts exact matches, a smooth gradient of thousands of
+ * slightly different colors gets palette entries spread along it.
+ *
+ * The nodes are stored in parallel arrays indexed by node number, and
+ * reduced nodes are recycled, so no objects are created per node.
+ */
+final class OctreeQuantizer {
+
+    private static final int DEPTH = 8;
+    private static final int NONE = -1;
+
+    private final int maxLeaves;
+
+    // children[8 * n + i] is child i of node n, or 0 (the root is never a
+    // child)
+    private int[] children;
+    private long[] red;
+    private long[] green;
+    private long[] blue;
+    private int[] count;
+    private boolean[] leaf;
+
+    // internal nodes of each level that can be reduced, as linked stacks
+    // through next; freed nodes are a linked stack through next as well
+    private final int[] reducible = new int[DEPTH];
+    private int[] next;
+    private int free = NONE;
+
+    private int nodes = 0;
+    private int leaves = 0;
+
+    // the last color added and the leaf it went to, while no reduction
+    // has happened since
+    private int lastColor = NONE;
+    private int lastLeaf = NONE;
+
+    /**
+     * Creates an empty tree.
+     *
+     * @param maxColors the most colors the palette may have, at least 1
+     */
+    OctreeQuantizer(int maxColors) {
+        if (maxColors < 1) {
+            throw new IllegalArgumentException("palette must have a color, got " + maxColors);
+        }
+        maxLeaves = maxColors;
+        Arrays.fill(reducible, NONE);
+        int capacity = 64;
+        children = new int[8 * capacity];
+        red = new long[capacity];
+        green = new long[capacity];
+        blue = new long[capacity];
+        count = new int[capacity];
+        leaf = new boolean[capacity];
+        next = new int[capacity];
+        newNode(0);
+    }
+
+    /**
+     * Chooses a palette for some pixels.
+     *
+     * @param src       packed {@code 0xRRGGBB} colors
+     * @param maxColors the most colors the palette may have, at least 1
+     * @return the palette, most used entries first
+     */
+    static int[] palette(int[] src, int maxColors) {
+        OctreeQuantizer tree = new OctreeQuantizer(maxColors);
+        for (int rgb : src) {
+            tree.add(rgb);
+        }
+        return tree.palette();
+    }
+
+    /**
+     * Adds a pixel to the tree.
+     *
+     * @param rgb a packed {@code 0xRRGGBB} color
+     */
+    void add(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        int node = (rgb & 0xFFFFFF) == lastColor ? lastLeaf : 0;
+        for (int level = 0; !leaf[node]; level++) {
+            int shift = 7 - level;
+            int i = ((r >> shift) & 1) << 2 | ((g >> shift) & 1) << 1 | ((b >> shift) & 1);
+            int child = children[8 * node + i];
+            if (child == 0) {
+                child = newNode(level + 1);
+                children[8 * node + i] = child;
+            }
+            node = child;
+        }
+        red[node] += r;
+        green[node] += g;
+        blue[node] += b;
+        count[node]++;
+        lastColor = rgb & 0xFFFFFF;
+        lastLeaf = node;
+
+        while (leaves > maxLeaves) {
+            reduce();
+        }
+    }
+
+    private int newNode(int level) {
+        int n;
+        if (free != NONE) {
+            n = free;
+            free = next[n];
+        } else {
+            if (nodes == count.length) {
+                grow();
+            }
+            n = nodes++;
+        }
+        if (level == DEPTH) {
+            leaf[n] = true;
+            leaves++;
+        } else {
+            next[n] = reducible[level];
+            reducible[level] = n;
+        }
+        return n;
+    }
+
+    private void grow() {
+        int capacity = 2 * count.length;
+        children = Arrays.copyOf(children, 8 * capacity);
+        red = Arrays.copyOf(red, capacity);
+        green = Arrays.copyOf(green, capacity);
+        blue = Arrays.copyOf(blue, capacity);
+        count = Arrays.copyOf(count, capacity);
+        leaf = Arrays.copyOf(leaf, capacity);
+        next = Arrays.copyOf(next, capacity);
+    }
+
+    /**
+     * Merges the children of the most recently created node of the deepest
+     * level into it. Its children are leaves, since any internal child would
+     * be on a deeper level.
+     */
+    private void reduce() {
+        int level = DEPTH - 1;
+        while (reducible[level] == NONE) {
+            level--;
+        }
+        int n = reducible[level];
+        reducible[level] = next[n];
+        for (int i = 8 * n; i < 8 * n + 8; i++) {
+            int c = children[i];
+            if (c == 0) {
+                continue;
+            }
+            red[n] += red[c];
+            green[n] += green[c];
+            blue[n] += blue[c];
+            count[n] += count[c];
+            red[c] = 0;
+            green[c] = 0;
+            blue[c] = 0;
+            count[c] = 0;
+            leaf[c] = false;
+            next[c] = free;
+            free = c;
+            children[i] = 0;
+            leaves--;
+        }
+        leaf[n] = true;
+        leaves++;
+        lastColor = NONE;
+    }
+
+    /**
+     * @return the average color of each leaf that has pixels, in descending
+     *         order of the number of pixels (and then of color, as
+     *         {@link ColorMap#getSortedColors} breaks ties)
+     */
+    int[] palette() {
+        long[] entries = new long[leaves];
+        int k = 0;
+        for (int n = 0; n < nodes; n++) {
+            if (leaf[n] && count[n] > 0) {
+                int c = count[n];
+                int rgb = (int) ((red[n] + c / 2) / c) << 16
+                        | (int) ((green[n] + c / 2) / c) << 8
+                        | (int) ((blue[n] + c / 2) / c);
+                entries[k++] = (long) c << 24 | rgb;
+            }
+        }
+        entries = Arrays.copyOf(entries, k);
+        Arrays.sort(entries);
+        int[] colors = new int[k];
+        for (int i = 0; i < k; i++) {
+            colors[i] = (int) (entries[k - 1 - i] & 0xFFFFFF);
+        }
+        return colors;
+    }
+}
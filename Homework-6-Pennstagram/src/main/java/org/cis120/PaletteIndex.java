@@ -0,0 +1,257 @@
+package org.cis120;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Finds the palette color closest to a given color, as measured by
+ * {@link Pixel#distance} (the sum of the absolute component differences).
+ *
+ * The answer is always the same as scanning the whole palette in order and
+ * keeping the first entry with the smallest distance, so ties go to the
+ * entry that comes first in the palette. But instead of comparing against
+ * every entry, the RGB cube is divided into a grid of 16 x 16 x 16 cells.
+ * For each cell we precompute the (usually short) list of palette entries
+ * that could be the closest entry to some color in the cell, in palette
+ * order. A lookup only scans the list for the color's cell.
+ *
+ * An entry can be closest to a color in the cell only if its smallest
+ * possible distance to the cell is at most the largest possible distance of
+ * some other entry to the cell. Every entry tied for closest passes that
+ * test, so keeping the lists in palette order preserves the tie-breaking.
+ *
+ * A cell's list is built the first time a color in that cell is looked up,
+ * so an image only pays for the part of the color cube it uses. Palettes of
+ * at most {@link #SMALL_PALETTE} entries are simply scanned in full.
+ */
+public class PaletteIndex {
+
+    private static final int SHIFT = 4; // cells are 16 values wide
+    private static final int CELLS = 256 >> SHIFT; // per axis
+    private static final int CACHE_BITS = 12;
+
+    /**
+     * Palettes up to this size are not worth indexing.
+     */
+    public static final int SMALL_PALETTE = 32;
+
+    private final int[] palette;
+
+    // palette entries bucketed by cell, in palette order within each cell:
+    // the entries of cell c are bucket[bucketStart[c]] .. bucket[bucketStart[c+1]-1]
+    private final int[] bucketStart = new int[CELLS * CELLS * CELLS + 1];
+    private final int[] bucket;
+
+    // the candidate list of each cell, or null until it is first needed
+    private final AtomicReferenceArray<int[]> candidates;
+    private final int[] everything;
+
+    /**
+     * Builds an index over a palette.
+     *
+     * @param palette packed {@code 0xRRGGBB} colors, in order of preference
+     *                for ties; must not be empty
+     */
+    public PaletteIndex(int[] palette) {
+        if (palette.length == 0) {
+            throw new IllegalArgumentException("empty palette");
+        }
+        this.palette = palette.clone();
+
+        // bucket the palette by cell, keeping palette order within a cell
+        int cells = CELLS * CELLS * CELLS;
+        for (int c : palette) {
+            bucketStart[cellOf(c) + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            bucketStart[c + 1] += bucketStart[c];
+        }
+        bucket = new int[palette.length];
+        int[] fill = Arrays.copyOf(bucketStart, cells);
+        for (int i = 0; i < palette.length; i++) {
+            bucket[fill[cellOf(palette[i])]++] = i;
+        }
+
+        candidates = new AtomicReferenceArray<int[]>(cells);
+        everything = new int[palette.length];
+        for (int i = 0; i < everything.length; i++) {
+            everything[i] = i;
+        }
+    }
+
+    /**
+     * The candidate list of a cell, building it if needed. Two threads may
+     * both build the same list; they compute equal arrays, so it does not
+     * matter whose is kept.
+     */
+    private int[] candidatesFor(int cell) {
+        if (palette.length <= SMALL_PALETTE) {
+            return everything;
+        }
+        int[] list = candidates.get(cell);
+        if (list == null) {
+            int[] found = new int[palette.length];
+            int n = cellCandidates(cell, found);
+            Arrays.sort(found, 0, n); // back into palette order
+            list = Arrays.copyOf(found, n);
+            candidates.set(cell, list);
+        }
+        return list;
+    }
+
+    private static int cellOf(int rgb) {
+        return ((Pixel.red(rgb) >> SHIFT) * CELLS + (Pixel.green(rgb) >> SHIFT)) * CELLS
+                + (Pixel.blue(rgb) >> SHIFT);
+    }
+
+    /**
+     * Writes the indices of the palette entries that could be closest to
+     * some color in the cell into found, and returns how many there are.
+     */
+    private int cellCandidates(int cell, int[] found) {
+        int cr = cell / (CELLS * CELLS);
+        int cg = (cell / CELLS) % CELLS;
+        int cb = cell % CELLS;
+
+        // an upper bound on the distance from any color in the cell to its
+        // closest entry: the best worst case among the entries in the nearest
+        // non-empty ring of cells around this one
+        int bound = Integer.MAX_VALUE;
+        for (int ring = 0; bound == Integer.MAX_VALUE; ring++) {
+            for (int r = cr - ring; r <= cr + ring; r++) {
+                for (int g = cg - ring; g <= cg + ring; g++) {
+                    for (int b = cb - ring; b <= cb + ring; b++) {
+                        boolean onRing = Math.abs(r - cr) == ring || Math.abs(g - cg) == ring
+                                || Math.abs(b - cb) == ring;
+                        if (!onRing || !inGrid(r, g, b)) {
+                            continue;
+                        }
+                        int other = (r * CELLS + g) * CELLS + b;
+                        for (int k = bucketStart[other]; k < bucketStart[other + 1]; k++) {
+                            bound = Math.min(bound, maxDistance(palette[bucket[k]], cr, cg, cb));
+                        }
+                    }
+                }
+            }
+        }
+
+        // entries in a cell dc cells away (dc >= 1) along an axis are at
+        // least 16 * (dc - 1) + 1 away along that axis
+        int reach = bound == 0 ? 0 : (bound - 1) / (1 << SHIFT) + 1;
+        int n = 0;
+        for (int r = Math.max(cr - reach, 0); r <= Math.min(cr + reach, CELLS - 1); r++) {
+            for (int g = Math.max(cg - reach, 0); g <= Math.min(cg + reach, CELLS - 1); g++) {
+                for (int b = Math.max(cb - reach, 0); b <= Math.min(cb + reach, CELLS - 1); b++) {
+                    if (gap(r - cr) + gap(g - cg) + gap(b - cb) > bound) {
+                        continue;
+                    }
+                    int other = (r * CELLS + g) * CELLS + b;
+                    for (int k = bucketStart[other]; k < bucketStart[other + 1]; k++) {
+                        if (minDistance(palette[bucket[k]], cr, cg, cb) <= bound) {
+                            found[n++] = bucket[k];
+                        }
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    private static boolean inGrid(int r, int g, int b) {
+        return r >= 0 && r < CELLS && g >= 0 && g < CELLS && b >= 0 && b < CELLS;
+    }
+
+    /**
+     * The smallest distance along one axis between values in two cells that
+     * are dc cells apart.
+     */
+    private static int gap(int dc) {
+        int d = Math.abs(dc);
+        return d == 0 ? 0 : (1 << SHIFT) * (d - 1) + 1;
+    }
+
+    /**
+     * The smallest distance from color to any color in the cell.
+     */
+    private static int minDistance(int color, int cr, int cg, int cb) {
+        return axisMin(Pixel.red(color), cr) + axisMin(Pixel.green(color), cg)
+                + axisMin(Pixel.blue(color), cb);
+    }
+
+    /**
+     * The largest distance from color to any color in the cell.
+     */
+    private static int maxDistance(int color, int cr, int cg, int cb) {
+        return axisMax(Pixel.red(color), cr) + axisMax(Pixel.green(color), cg)
+                + axisMax(Pixel.blue(color), cb);
+    }
+
+    private static int axisMin(int v, int c) {
+        int lo = c << SHIFT;
+        int hi = lo + (1 << SHIFT) - 1;
+        return v < lo ? lo - v : v > hi ? v - hi : 0;
+    }
+
+    private static int axisMax(int v, int c) {
+        int lo = c << SHIFT;
+        int hi = lo + (1 << SHIFT) - 1;
+        return Math.max(Math.abs(v - lo), Math.abs(v - hi));
+    }
+
+    /**
+     * Finds the palette color closest to a color.
+     *
+     * @param rgb a packed {@code 0xRRGGBB} color
+     * @return the closest palette color, the earliest one in case of a tie
+     */
+    public int closest(int rgb) {
+        int r = Pixel.red(rgb);
+        int g = Pixel.green(rgb);
+        int b = Pixel.blue(rgb);
+        int[] list = candidatesFor(cellOf(rgb));
+        int best = palette[list[0]];
+        int bestDistance = Integer.MAX_VALUE;
+        for (int k : list) {
+            int c = palette[k];
+            int d = Math.abs(r - Pixel.red(c)) + Math.abs(g - Pixel.green(c))
+                    + Math.abs(b - Pixel.blue(c));
+            if (d < bestDistance) {
+                best = c;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Replaces every color of an image with its closest palette color.
+     *
+     * The rows are processed in parallel by the {@link TileScheduler}. Each
+     * band remembers the answers for colors it has already seen in a small
+     * direct-mapped cache, since neighboring pixels of a photo often share
+     * exact colors.
+     *
+     * @param src packed colors; not modified
+     * @param w   the width of the image
+     * @param h   the height of the image
+     * @return a new array with each color of src mapped to the palette
+     */
+    public int[] map(int[] src, int w, int h) {
+        int[] tgt = new int[src.length];
+        TileScheduler.forEachBand(w, h, (startRow, endRow) -> {
+            int[] seen = new int[1 << CACHE_BITS];
+            int[] answer = new int[1 << CACHE_BITS];
+            Arrays.fill(seen, -1);
+            for (int i = startRow * w; i < endRow * w; i++) {
+                int c = src[i];
+                int slot = (c * 0x9E3779B9) >>> (32 - CACHE_BITS);
+                if (seen[slot] != c) {
+                    seen[slot] = c;
+                    answer[slot] = closest(c);
+                }
+                tgt[i] = answer[slot];
+            }
+        });
+        return tgt;
+    }
+}
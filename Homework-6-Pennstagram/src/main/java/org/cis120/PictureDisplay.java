@@ -0,0 +1,204 @@
+package org.cis120;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
+import javax.swing.JComponent;
+
+/**
+ * A Swing component that displays a picture, for the {@link GUI}.
+ *
+ * The component keeps a copy of the displayed picture in a
+ * {@link VolatileImage}, which lives in video memory where the graphics
+ * hardware can draw it quickly. When a new picture of the same size is
+ * shown, the picture is compared with the one already in the copy a tile
+ * of {@link #TILE} x {@link #TILE} pixels at a time, and only the tiles
+ * that differ are drawn into the copy, straight from the picture's own
+ * raster (see {@link PixelPicture#sharedImage()}). A flood fill or a border
+ * only pushes the tiles it touched, and showing a picture never copies it
+ * or allocates anything in between. The whole picture is pushed when its
+ * size changes, and whenever the video memory copy is lost (which can
+ * happen at any time, for example when the screen mode changes).
+ *
+ * When no volatile image can be made (the component is not on screen, or
+ * there is no screen), the picture is drawn directly.
+ *
+ * A preview can also be shown stretched to some size without disturbing
+ * the copy; it is drawn directly until the next picture is shown.
+ */
+final class PictureDisplay extends JComponent {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The width and height of the tiles that are compared and pushed.
+     */
+    static final int TILE = 64;
+
+    // the picture to display, and the preview to display instead, if any
+    private PixelPicture picture;
+    private PixelPicture preview;
+    private int previewWidth;
+    private int previewHeight;
+
+    // the copy in video memory, and the picture it holds (null if its
+    // contents are unknown)
+    private transient VolatileImage buffer;
+    private PixelPicture buffered;
+
+    /**
+     * Creates a display showing a picture.
+     *
+     * @param pic the picture to show
+     */
+    PictureDisplay(PixelPicture pic) {
+        show(pic);
+    }
+
+    /**
+     * Displays a picture.
+     *
+     * @param pic the picture to show
+     */
+    void show(PixelPicture pic) {
+        boolean resized = picture == null || pic.getWidth() != picture.getWidth()
+                || pic.getHeight() != picture.getHeight();
+        picture = pic;
+        preview = null;
+        if (resized) {
+            revalidate();
+        }
+        repaint();
+    }
+
+    /**
+     * Displays a picture stretched to a size, until the next call to
+     * {@link #show(PixelPicture)}. The stretching is done while painting, so
+     * no enlarged copy of the picture is made.
+     *
+     * @param pic    the picture to show
+     * @param width  the width to stretch it to
+     * @param height the height to stretch it to
+     */
+    void showStretched(PixelPicture pic, int width, int height) {
+        preview = pic;
+        previewWidth = width;
+        previewHeight = height;
+        repaint();
+    }
+
+    /**
+     * @return the picture displayed, not counting previews
+     */
+    PixelPicture getPicture() {
+        return picture;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (preview != null) {
+            return new Dimension(previewWidth, previewHeight);
+        }
+        return new Dimension(picture.getWidth(), picture.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (preview != null) {
+            g.drawImage(preview.sharedImage(), 0, 0, previewWidth, previewHeight, null);
+            return;
+        }
+        if (!update()) {
+            g.drawImage(picture.sharedImage(), 0, 0, null);
+            return;
+        }
+        g.drawImage(buffer, 0, 0, null);
+        while (buffer.contentsLost()) {
+            buffered = null;
+            if (!update()) {
+                g.drawImage(picture.sharedImage(), 0, 0, null);
+                return;
+            }
+            g.drawImage(buffer, 0, 0, null);
+        }
+    }
+
+    /**
+     * Brings the copy in video memory up to date with the picture, making
+     * it first if needed.
+     *
+     * @return false if there is no copy in video memory
+     */
+    private boolean update() {
+        int w = picture.getWidth();
+        int h = picture.getHeight();
+        if (buffer == null || buffer.getWidth() != w || buffer.getHeight() != h) {
+            if (buffer != null) {
+                buffer.flush();
+            }
+            buffer = createVolatileImage(w, h);
+            buffered = null;
+            if (buffer == null) {
+                return false;
+            }
+        }
+        int valid = buffer.validate(getGraphicsConfiguration());
+        if (valid == VolatileImage.IMAGE_INCOMPATIBLE) {
+            buffer.flush();
+            buffer = null;
+            return update();
+        }
+        if (valid == VolatileImage.IMAGE_RESTORED) {
+            buffered = null;
+        }
+        if (buffered != picture) {
+            push();
+            buffered = picture;
+        }
+        return true;
+    }
+
+    // draw the tiles of the picture that differ from the buffered picture
+    // (or all of them) into the buffer
+    private void push() {
+        int w = picture.getWidth();
+        int h = picture.getHeight();
+        Image src = picture.sharedImage();
+        int[] now = picture.pixels();
+        int[] was = buffered == null ? null : buffered.pixels();
+        Graphics g = buffer.getGraphics();
+        try {
+            for (int y = 0; y < h; y += TILE) {
+                int y1 = Math.min(y + TILE, h);
+                for (int x = 0; x < w; x += TILE) {
+                    int x1 = Math.min(x + TILE, w);
+                    if (was == null || differ(was, now, w, x, y, x1, y1)) {
+                        g.drawImage(src, x, y, x1, y1, x, y, x1, y1, null);
+                    }
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * @return true if a and b, two pictures of width w, differ in the
+     *         rectangle from (x0, y0) up to (x1, y1), not included
+     */
+    static boolean differ(int[] a, int[] b, int w, int x0, int y0, int x1, int y1) {
+        if (a == b) {
+            return false;
+        }
+        for (int y = y0; y < y1; y++) {
+            int from = y * w + x0;
+            int to = y * w + x1;
+            if (Arrays.mismatch(a, from, to, b, from, to) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
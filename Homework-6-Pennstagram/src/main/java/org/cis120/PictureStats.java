@@ -0,0 +1,199 @@
+package org.cis120;
+
+/**
+ * Statistics of the colors of a picture: a histogram of each component,
+ * from which the sums, means, minimums and maximums follow, and the number
+ * of pixels of each color.
+ *
+ * The histograms are filled in by one pass over the picture, in parallel
+ * bands (see {@link TileScheduler}) that each count into their own tables
+ * and then add them up. Counting colors means a hash map lookup per pixel,
+ * which costs several times the histogram pass, so the colors are only
+ * counted (in a second pass, also in parallel bands) the first time they
+ * are asked for.
+ *
+ * Get the statistics of a picture with {@link PixelPicture#stats()}, which
+ * computes them once per picture.
+ */
+public final class PictureStats {
+
+    /**
+     * The index of the red component.
+     */
+    public static final int RED = 0;
+
+    /**
+     * The index of the green component.
+     */
+    public static final int GREEN = 1;
+
+    /**
+     * The index of the blue component.
+     */
+    public static final int BLUE = 2;
+
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+
+    // the histogram of red, then those of green and blue: histograms[256 *
+    // component + value] is the number of pixels whose component has value
+    private final int[] histograms;
+
+    // the frequency of each color, once counted
+    private volatile ColorMap colors;
+
+    private PictureStats(int[] pixels, int width, int height, int[] histograms) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.histograms = histograms;
+    }
+
+    /**
+     * Computes the histograms of the w x h packed pixels px, which must not
+     * change afterwards.
+     */
+    static PictureStats of(int[] px, int w, int h) {
+        int[] total = new int[3 * 256];
+        TileScheduler.forEachBand(w, h, (start, end) -> {
+            int[] local = new int[3 * 256];
+            for (int i = start * w; i < end * w; i++) {
+                int p = px[i];
+                local[(p >> 16) & 0xFF]++;
+                local[256 + ((p >> 8) & 0xFF)]++;
+                local[512 + (p & 0xFF)]++;
+            }
+            synchronized (total) {
+                for (int k = 0; k < total.length; k++) {
+                    total[k] += local[k];
+                }
+            }
+        });
+        return new PictureStats(px, w, h, total);
+    }
+
+    /**
+     * @return the number of pixels of the picture
+     */
+    public int getPixelCount() {
+        return width * height;
+    }
+
+    /**
+     * @param component {@link #RED}, {@link #GREEN} or {@link #BLUE}
+     * @return a copy of the histogram of the component: entry v is the
+     *         number of pixels whose component is v
+     */
+    public int[] histogram(int component) {
+        int[] h = new int[256];
+        System.arraycopy(histograms, 256 * component, h, 0, 256);
+        return h;
+    }
+
+    /**
+     * @param component {@link #RED}, {@link #GREEN} or {@link #BLUE}
+     * @return the sum of the component over all pixels
+     */
+    public long sum(int component) {
+        long s = 0;
+        for (int v = 0; v < 256; v++) {
+            s += (long) v * histograms[256 * component + v];
+        }
+        return s;
+    }
+
+    /**
+     * @param component {@link #RED}, {@link #GREEN} or {@link #BLUE}
+     * @return the mean of the component over all pixels
+     */
+    public double mean(int component) {
+        return (double) sum(component) / getPixelCount();
+    }
+
+    /**
+     * @param component {@link #RED}, {@link #GREEN} or {@link #BLUE}
+     * @return the smallest value of the component
+     */
+    public int min(int component) {
+        int v = 0;
+        while (histograms[256 * component + v] == 0) {
+            v++;
+        }
+        return v;
+    }
+
+    /**
+     * @param component {@link #RED}, {@link #GREEN} or {@link #BLUE}
+     * @return the largest value of the component
+     */
+    public int max(int component) {
+        int v = 255;
+        while (histograms[256 * component + v] == 0) {
+            v--;
+        }
+        return v;
+    }
+
+    /**
+     * The average color intensity, as {@link AdvancedManipulations#adjustContrast}
+     * defines it: the sum of all components of all pixels, divided by three
+     * times the number of pixels, rounded to an int.
+     *
+     * @return the average intensity
+     */
+    public int meanIntensity() {
+        long total = sum(RED) + sum(GREEN) + sum(BLUE);
+        return (int) Math.round(total / (getPixelCount() * 3.0));
+    }
+
+    /**
+     * @return the number of different colors in the picture
+     */
+    public int colorCount() {
+        return colors().size();
+    }
+
+    /**
+     * @param rgb a packed {@code 0xRRGGBB} color
+     * @return the number of pixels of that color
+     */
+    public int frequency(int rgb) {
+        return colors().getFrequency(rgb);
+    }
+
+    /**
+     * @param k the number of colors to return
+     * @return the {@code k} most frequent colors (or all of them, if there
+     *         are fewer), as {@link ColorMap#getTopColors} orders them
+     */
+    public int[] topColors(int k) {
+        return colors().getTopColors(k);
+    }
+
+    // the frequency of each color, counted the first time it is needed; two
+    // threads asking at the same time may both count them
+    private ColorMap colors() {
+        ColorMap c = colors;
+        if (c != null) {
+            return c;
+        }
+        int w = width;
+        ColorMap[] merged = new ColorMap[1];
+        TileScheduler.forEachBand(w, height, (start, end) -> {
+            ColorMap local = new ColorMap();
+            for (int i = start * w; i < end * w; i++) {
+                local.addColor(pixels[i]);
+            }
+            synchronized (merged) {
+                if (merged[0] == null) {
+                    merged[0] = local;
+                } else {
+                    merged[0].addAll(local);
+                }
+            }
+        });
+        colors = merged[0];
+        return merged[0];
+    }
+}
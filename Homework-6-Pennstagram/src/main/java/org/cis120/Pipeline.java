@@ -0,0 +1,324 @@
+package org.cis120;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A sequence of image manipulations that runs in as few passes over the
+ * image as possible.
+ *
+ * A pipeline is made of two kinds of stages:
+ *
+ * - A point stage computes each output pixel from the input pixel at the
+ * same position, e.g. grayscale, scaling colors or vignetting.
+ * Consecutive point stages are fused: the pipeline makes one pass over the
+ * image and runs each pixel through all of them, without creating any
+ * intermediate pictures.
+ *
+ * - A picture stage needs to see more than one input pixel to compute an
+ * output pixel (blur, border, contrast, ...). The pipeline finishes the
+ * current pass before running it, and starts a new pass afterwards.
+ *
+ * Pipelines are immutable; {@link #then(PointStage)} and
+ * {@link #then(PictureStage)} return a new, longer pipeline. For example,
+ *
+ * Pipeline p = new Pipeline()
+ * .then(SimpleManipulations.grayScaleLuminosityStage())
+ * .then(SimpleManipulations.vignetteStage())
+ * .then(pic -> AdvancedManipulations.blur(pic, 2));
+ *
+ * makes two passes over the image: one for grayscale and vignette together,
+ * and one for the blur.
+ *
+ * Consecutive stages that only depend on the color of a pixel (the gray
+ * scales, invert, scaling) are {@link ColorTransform}s, which fuse further
+ * into a single set of lookup tables.
+ */
+public class Pipeline {
+
+    /**
+     * A transformation of the color of a single pixel. Pixels may be
+     * processed in any order and from several threads at once (see
+     * {@link TileScheduler}), so an operation must not depend on state
+     * changed by earlier calls.
+     */
+    public interface PointOp {
+        /**
+         * @param rgb the packed {@code 0xRRGGBB} color of the input pixel
+         * @param col the column of the pixel
+         * @param row the row of the pixel
+         * @return the packed color of the output pixel
+         */
+        int apply(int rgb, int col, int row);
+    }
+
+    /**
+     * A per-pixel stage. Because some point operations depend on the size
+     * of the image (vignette, for instance), a stage is specialized to the
+     * dimensions of the picture before it is run.
+     */
+    public interface PointStage {
+        /**
+         * @param width  width of the image the stage will run on
+         * @param height height of the image the stage will run on
+         * @return the per-pixel operation for an image of that size
+         */
+        PointOp forSize(int width, int height);
+    }
+
+    /**
+     * A stage that needs to see the whole picture, such as blur or border.
+     */
+    public interface PictureStage {
+        /**
+         * @param pic the input picture
+         * @return the output picture
+         */
+        PixelPicture apply(PixelPicture pic);
+    }
+
+    /**
+     * A picture stage that only looks at nearby pixels: each output pixel
+     * depends on the input pixels at most {@link #radius()} columns and rows
+     * away, the same way everywhere in the picture, and the output has the
+     * size of the input. Running a local stage on a crop of a picture gives
+     * the same pixels as running it on the whole picture, except within the
+     * radius of those edges of the crop that are not edges of the picture.
+     * Blur is an example; flood and border are not.
+     *
+     * Local stages let a {@link RegionRenderer} recompute part of a picture.
+     */
+    public interface LocalStage extends PictureStage {
+        /**
+         * @return how far away, in rows or columns, an input pixel can be and
+         *         still affect an output pixel
+         */
+        int radius();
+    }
+
+    /**
+     * The point stage that leaves every pixel unchanged.
+     */
+    public static final PointStage IDENTITY = (w, h) -> (rgb, col, row) -> rgb;
+
+    // each element is either a PointStage or a PictureStage
+    private final List<Object> stages;
+
+    /**
+     * Creates an empty pipeline, which returns its input unchanged.
+     */
+    public Pipeline() {
+        this.stages = Collections.emptyList();
+    }
+
+    private Pipeline(List<Object> prefix, Object stage) {
+        List<Object> l = new ArrayList<Object>(prefix);
+        l.add(stage);
+        this.stages = Collections.unmodifiableList(l);
+    }
+
+    /**
+     * @param stage the per-pixel stage to append
+     * @return a new pipeline that runs this one followed by {@code stage}
+     */
+    public Pipeline then(PointStage stage) {
+        return new Pipeline(stages, stage);
+    }
+
+    /**
+     * @param stage the whole-picture stage to append
+     * @return a new pipeline that runs this one followed by {@code stage}
+     */
+    public Pipeline then(PictureStage stage) {
+        return new Pipeline(stages, stage);
+    }
+
+    /**
+     * The stages of this pipeline, each a PointStage or a PictureStage.
+     */
+    List<Object> stages() {
+        return stages;
+    }
+
+    /**
+     * Fuses the whole pipeline into a single point stage, for use where
+     * the image is processed a piece at a time (see {@link StripProcessor}).
+     *
+     * @return a point stage equivalent to this pipeline
+     * @throws IllegalArgumentException if the pipeline has a picture stage
+     */
+    public PointStage asPointStage() {
+        List<PointStage> points = new ArrayList<PointStage>();
+        for (Object stage : stages) {
+            if (!(stage instanceof PointStage)) {
+                throw new IllegalArgumentException(
+                        "pipeline has a stage that needs the whole picture"
+                );
+            }
+            points.add((PointStage) stage);
+        }
+        return compose(points);
+    }
+
+    /**
+     * Runs the pipeline. The input picture is not modified.
+     *
+     * @param pic the input picture
+     * @return the result of running every stage, in order, on {@code pic}
+     */
+    public PixelPicture apply(PixelPicture pic) {
+        List<PointStage> pending = new ArrayList<PointStage>();
+        for (Object stage : stages) {
+            if (stage instanceof PointStage) {
+                pending.add((PointStage) stage);
+            } else {
+                pic = apply(pic, compose(pending));
+                pending.clear();
+                pic = ((PictureStage) stage).apply(pic);
+            }
+        }
+        return apply(pic, compose(pending));
+    }
+
+    /**
+     * Runs a single point stage over a picture in one pass. The rows of the
+     * picture are processed in parallel by the {@link TileScheduler}.
+     *
+     * @param pic   the input picture, which is not modified
+     * @param stage the per-pixel stage to run
+     * @return a new picture with {@code stage} applied to every pixel
+     */
+    public static PixelPicture apply(PixelPicture pic, PointStage stage) {
+        return apply(pic, stage, 0, 0, pic.getWidth(), pic.getHeight());
+    }
+
+    /**
+     * Runs a point stage over a crop of a larger picture, so that the stage
+     * sees the positions and size of the larger picture.
+     *
+     * @param crop       the cropped input
+     * @param stage      the per-pixel stage to run
+     * @param x0         the column of the larger picture where the crop starts
+     * @param y0         the row of the larger picture where the crop starts
+     * @param fullWidth  the width of the larger picture
+     * @param fullHeight the height of the larger picture
+     * @return the crop with {@code stage} applied to every pixel
+     */
+    static PixelPicture apply(
+            PixelPicture crop, PointStage stage, int x0, int y0, int fullWidth, int fullHeight
+    ) {
+        if (stage == IDENTITY) {
+            return crop;
+        }
+        if (stage instanceof ColorTransform) {
+            return ((ColorTransform) stage).apply(crop); // the same everywhere
+        }
+        int w = crop.getWidth();
+        int h = crop.getHeight();
+        PointOp op = stage.forSize(fullWidth, fullHeight);
+
+        int[] src = crop.pixels();
+        int[] tgt = new int[w * h];
+        TileScheduler.forEachBand(w, h, (start, end) -> {
+            for (int row = start; row < end; row++) {
+                int i = row * w;
+                for (int col = 0; col < w; col++, i++) {
+                    tgt[i] = op.apply(src[i], x0 + col, y0 + row);
+                }
+            }
+        });
+        return new PixelPicture(w, h, tgt);
+    }
+
+    /**
+     * Fuses a sequence of point stages into one.
+     *
+     * @param stages the stages, in the order they should run
+     * @return a stage equivalent to running each of {@code stages} in turn
+     */
+    public static PointStage compose(List<PointStage> stages) {
+        stages = fuseColorTransforms(stages);
+        if (stages.isEmpty()) {
+            return IDENTITY;
+        }
+        if (stages.size() == 1) {
+            return stages.get(0);
+        }
+        final PointStage[] copy = stages.toArray(new PointStage[0]);
+        return (w, h) -> {
+            final PointOp[] ops = new PointOp[copy.length];
+            for (int k = 0; k < ops.length; k++) {
+                ops[k] = copy[k].forSize(w, h);
+            }
+            return (rgb, col, row) -> {
+                for (PointOp op : ops) {
+                    rgb = op.apply(rgb, col, row);
+                }
+                return rgb;
+            };
+        };
+    }
+
+    /**
+     * Replaces each run of consecutive {@link ColorTransform}s by a single
+     * one, whose tables do the work of the whole run.
+     */
+    private static List<PointStage> fuseColorTransforms(List<PointStage> stages) {
+        List<PointStage> fused = new ArrayList<PointStage>();
+        ColorTransform run = null;
+        for (PointStage stage : stages) {
+            if (stage instanceof ColorTransform) {
+                run = run == null ? (ColorTransform) stage : run.then((ColorTransform) stage);
+                continue;
+            }
+            if (run != null) {
+                fused.add(run);
+                run = null;
+            }
+            fused.add(stage);
+        }
+        if (run != null) {
+            fused.add(run);
+        }
+        return fused;
+    }
+
+    /**
+     * Fuses a sequence of point stages into one.
+     *
+     * @param stages the stages, in the order they should run
+     * @return a stage equivalent to running each of {@code stages} in turn
+     */
+    public static PointStage compose(PointStage... stages) {
+        List<PointStage> l = new ArrayList<PointStage>();
+        Collections.addAll(l, stages);
+        return compose(l);
+    }
+
+    /**
+     * A point stage that runs two stages on the same input pixel and blends
+     * their results with {@link SimpleManipulations#weightedAverage}. This is
+     * the per-pixel equivalent of
+     * {@code alphaBlend(alpha, first(pic), second(pic))}. Blending two
+     * per-channel {@link ColorTransform}s gives another one.
+     *
+     * @param alpha  weight of {@code first}
+     * @param first  stage whose result has weight {@code alpha}
+     * @param second stage whose result has weight {@code 1 - alpha}
+     * @return the blending stage
+     */
+    public static PointStage blend(double alpha, PointStage first, PointStage second) {
+        if (first instanceof ColorTransform && ((ColorTransform) first).isPerChannel()
+                && second instanceof ColorTransform && ((ColorTransform) second).isPerChannel()) {
+            return ColorTransform.blend(alpha, (ColorTransform) first, (ColorTransform) second);
+        }
+        return (w, h) -> {
+            final PointOp a = first.forSize(w, h);
+            final PointOp b = second.forSize(w, h);
+            return (rgb, col, row) -> SimpleManipulations.blendPixel(
+                    alpha, a.apply(rgb, col, row), b.apply(rgb, col, row)
+            );
+        };
+    }
+}
@@ -8,6 +8,9 @@ package org.cis120;
  * You do not need to modify this file.
  */
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.awt.*;
@@ -22,11 +25,38 @@ import javax.swing.*;
  * PixelPictures are immutable. Although they provide access to a 2D
  * array of pixels, this array is a copy of the one stored in the NewPic.
  * The original image cannot be modified.
+ *
+ * Internally the image is stored as a single array of packed
+ * {@code 0xRRGGBB} ints in left-to-right, top-to-bottom order. Code that
+ * processes large images should prefer {@link #getPixels()} and
+ * {@link #PixelPicture(int, int, int[])} to the Pixel bitmap, since they
+ * do not allocate an object per pixel.
  */
 public class PixelPicture {
 
-    private BufferedImage bufferedImage;
+    private static final DirectColorModel RGB_MODEL = new DirectColorModel(
+            24, 0xFF0000, 0x00FF00, 0x0000FF
+    );
+
+    // null while this picture is a view that has not been materialized;
+    // raster is always set before bufferedImage
+    private volatile BufferedImage bufferedImage;
     private WritableRaster raster;
+    private int width;
+    private int height;
+
+    // if this picture is a view: the pixel at (col, row) is
+    // viewSource[viewOrigin + col * viewColStep + row * viewRowStep]
+    private int[] viewSource;
+    private int viewOrigin;
+    private int viewColStep;
+    private int viewRowStep;
+
+    // the statistics of the colors, once computed (see stats)
+    private volatile PictureStats stats;
+
+    // the pyramid built so far: levels.get(k) is level k + 1 (see level)
+    private final List<PixelPicture> levels = new ArrayList<PixelPicture>();
 
     /**
      * Copies a NewPic.
@@ -34,14 +64,37 @@ public class PixelPicture {
      * @param other NewPic the other NewPic to copy
      */
     public PixelPicture(PixelPicture other) {
-        bufferedImage = new BufferedImage(
-                other.getWidth(),
-                other.getHeight(),
-                BufferedImage.TYPE_INT_RGB
-        );
+        adopt(other.getWidth(), other.getHeight(), other.pixels().clone());
+    }
 
-        raster = bufferedImage.getRaster();
-        raster.setRect(other.bufferedImage.getRaster());
+    /**
+     * Creates a picture from packed {@code 0xRRGGBB} colors in left-to-right,
+     * top-to-bottom order, so that the pixel at (col, row) is
+     * {@code rgb[row * width + col]}. The upper 8 bits of each entry are
+     * ignored.
+     *
+     * The array is used directly as the storage of the new picture (it is not
+     * copied), so the caller must not modify it afterwards.
+     *
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param rgb    the packed colors, of length {@code width * height}
+     */
+    public PixelPicture(int width, int height, int[] rgb) {
+        if (width <= 0 || height <= 0) {
+            throw new IndexOutOfBoundsException(
+                    "expected non-empty image, got " + width + "x" + height
+            );
+        }
+        if (rgb.length != width * height) {
+            throw new IndexOutOfBoundsException(
+                    "expected " + width * height + " pixels, got " + rgb.length
+            );
+        }
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] &= 0xFFFFFF;
+        }
+        adopt(width, height, rgb);
     }
 
     /**
@@ -67,17 +120,23 @@ public class PixelPicture {
      * @return the width of the image.
      */
     public int getWidth() {
-        return bufferedImage.getWidth();
+        return width;
     }
 
     /**
      * @return the height of the image.
      */
     public int getHeight() {
-        return bufferedImage.getHeight();
+        return height;
     }
 
     private void load(String filename) {
+        if (RawRaster.isRaw(filename) && new File(filename).exists()) {
+            PixelPicture raw = RawRaster.read(filename);
+            adopt(raw.getWidth(), raw.getHeight(), raw.pixels());
+            return;
+        }
+
         ImageIcon icon;
 
         try {
@@ -92,16 +151,195 @@ public class PixelPicture {
         }
 
         Image image = icon.getImage();
-        bufferedImage = new BufferedImage(
+        BufferedImage loaded = new BufferedImage(
                 image.getWidth(null),
                 image.getHeight(null),
                 BufferedImage.TYPE_INT_RGB
         );
-        Graphics g = bufferedImage.getGraphics();
+        Graphics g = loaded.getGraphics();
         g.drawImage(image, 0, 0, null);
         g.dispose();
 
-        raster = bufferedImage.getRaster();
+        width = loaded.getWidth();
+        height = loaded.getHeight();
+        raster = loaded.getRaster();
+        bufferedImage = loaded;
+
+        // drawing may fill in the unused alpha byte; keep packed pixels 0xRRGGBB
+        int[] rgb = pixels();
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] &= 0xFFFFFF;
+        }
+    }
+
+    /**
+     * Loads a picture from a file through ImageIO rather than the AWT
+     * toolkit. The toolkit keeps every image it loads in a cache keyed by
+     * file name, which suits the GUI but would make a program that loads
+     * thousands of files hold on to all of them. The pixels are the same as
+     * with {@link #PixelPicture(String)}.
+     *
+     * @param file the image file to read
+     * @return the picture in the file
+     * @throws IOException if the file can not be read or decoded
+     */
+    static PixelPicture read(File file) throws IOException {
+        if (RawRaster.isRaw(file.getName())) {
+            return RawRaster.read(file.getPath());
+        }
+        BufferedImage decoded = ImageIO.read(file);
+        if (decoded == null) {
+            throw new IOException("unrecognized image format: " + file);
+        }
+        int w = decoded.getWidth();
+        int h = decoded.getHeight();
+        int[] rgb = new int[w * h];
+        PixelPicture pic = new PixelPicture(w, h, rgb);
+        // draw onto black, exactly as load() does
+        Graphics g = pic.bufferedImage.getGraphics();
+        g.drawImage(decoded, 0, 0, null);
+        g.dispose();
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] &= 0xFFFFFF;
+        }
+        return pic;
+    }
+
+    private void adopt(int w, int h, int[] rgb) {
+        DataBufferInt buffer = new DataBufferInt(rgb, rgb.length);
+        width = w;
+        height = h;
+        raster = Raster.createPackedRaster(buffer, w, h, w, RGB_MODEL.getMasks(), null);
+        bufferedImage = new BufferedImage(RGB_MODEL, raster, false, null);
+    }
+
+    /*
+     * Orientation views. Rotating or mirroring a picture does not move any
+     * pixels: it returns a view that maps each of its positions to a
+     * position of the original's raster, which it shares. The map is affine
+     * in the array index, so a view of a view maps straight to the original
+     * too, and any sequence of rotations and mirrors is a single view. The
+     * pixels are copied out (once) only when something needs the raster of
+     * the view: a manipulation, getPixels, save, display, ...
+     */
+
+    private PixelPicture(
+            int width, int height, int[] source, int origin, int colStep, int rowStep
+    ) {
+        this.width = width;
+        this.height = height;
+        this.viewSource = source;
+        this.viewOrigin = origin;
+        this.viewColStep = colStep;
+        this.viewRowStep = rowStep;
+    }
+
+    /**
+     * A view of this picture with the given size, whose pixel at (x, y) is
+     * this picture's pixel at (a * x + b * y + c, d * x + e * y + f).
+     */
+    private synchronized PixelPicture view(
+            int w, int h, int a, int b, int c, int d, int e, int f
+    ) {
+        int[] source;
+        int origin;
+        int colStep;
+        int rowStep;
+        if (bufferedImage == null) {
+            source = viewSource;
+            origin = viewOrigin;
+            colStep = viewColStep;
+            rowStep = viewRowStep;
+        } else {
+            source = pixels();
+            origin = 0;
+            colStep = 1;
+            rowStep = width;
+        }
+        PixelPicture v = new PixelPicture(
+                w, h, source,
+                origin + colStep * c + rowStep * f,
+                colStep * a + rowStep * d,
+                colStep * b + rowStep * e
+        );
+        // the same pixels, only moved around
+        v.stats = stats;
+        return v;
+    }
+
+    /**
+     * @return a view of this picture rotated 90 degrees clockwise
+     */
+    PixelPicture rotatedCW() {
+        return view(height, width, 0, 1, 0, -1, 0, height - 1);
+    }
+
+    /**
+     * @return a view of this picture rotated 90 degrees counter-clockwise
+     */
+    PixelPicture rotatedCCW() {
+        return view(height, width, 0, -1, width - 1, 1, 0, 0);
+    }
+
+    /**
+     * @return a view of this picture with left and right swapped
+     */
+    PixelPicture mirroredHorizontally() {
+        return view(width, height, -1, 0, width - 1, 0, 1, 0);
+    }
+
+    /**
+     * @return a view of this picture with top and bottom swapped
+     */
+    PixelPicture mirroredVertically() {
+        return view(width, height, 1, 0, 0, 0, -1, height - 1);
+    }
+
+    /**
+     * Copies the pixels of a view into a raster of its own.
+     */
+    private void materialize() {
+        if (bufferedImage != null) {
+            return;
+        }
+        synchronized (this) {
+            if (bufferedImage != null) {
+                return;
+            }
+            int w = width;
+            int[] src = viewSource;
+            int origin = viewOrigin;
+            int cs = viewColStep;
+            int rs = viewRowStep;
+            int[] rgb = new int[w * height];
+            // in blocks of columns, so that a rotation reads each source
+            // cache line for several rows in a row
+            TileScheduler.forEachBand(w, height, (start, end) -> {
+                for (int c0 = 0; c0 < w; c0 += 64) {
+                    int c1 = Math.min(c0 + 64, w);
+                    for (int row = start; row < end; row++) {
+                        int i = origin + c0 * cs + row * rs;
+                        for (int col = c0; col < c1; col++, i += cs) {
+                            rgb[row * w + col] = src[i];
+                        }
+                    }
+                }
+            });
+            viewSource = null;
+            adopt(w, height, rgb);
+        }
+    }
+
+    /**
+     * The packed pixels backing this picture. Every raster created by this
+     * class is a TYPE_INT_RGB raster whose scanline stride equals its width,
+     * so its data array is exactly the image in row-major order.
+     *
+     * Callers within the package must treat the result as read-only.
+     */
+    int[] pixels() {
+        materialize();
+        return ((DataBufferInt) raster.getDataBuffer()).getData();
     }
 
     private void setBitmap(Pixel[][] bmp) {
@@ -116,8 +354,7 @@ public class PixelPicture {
             throw new IndexOutOfBoundsException("expected non-empty image, got width of 0");
         }
 
-        bufferedImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-        raster = bufferedImage.getRaster();
+        int[] rgb = new int[w * h];
 
         for (int y = 0; y < h; y++) {
             if (bmp[y].length != w) {
@@ -127,12 +364,11 @@ public class PixelPicture {
             }
 
             for (int x = 0; x < w; x++) {
-                if (bmp[y][x].getComponents() == null) {
-                    throw new UnsupportedOperationException("please implement the Pixel class");
-                }
-                raster.setPixel(x, y, bmp[y][x].getComponents());
+                rgb[y * w + x] = bmp[y][x].getRGB();
             }
         }
+
+        adopt(w, h, rgb);
     }
 
     /**
@@ -150,17 +386,132 @@ public class PixelPicture {
         int w = getWidth();
         int h = getHeight();
 
+        int[] rgb = pixels();
         Pixel[][] bmp = new Pixel[h][w];
 
-        for (int col = 0; col < w; col++) {
-            for (int row = 0; row < h; row++) {
-                bmp[row][col] = new Pixel(raster.getPixel(col, row, (int[]) null));
+        for (int row = 0; row < h; row++) {
+            for (int col = 0; col < w; col++) {
+                int c = rgb[row * w + col];
+                bmp[row][col] = Pixel.valueOf(c);
             }
         }
 
         return bmp;
     }
 
+    /**
+     * Gets the colors of the image as packed {@code 0xRRGGBB} ints. Like
+     * {@link #getBitmap()}, this returns a copy, but it is a single array with
+     * no per-pixel allocation.
+     *
+     * The array is in left-to-right, top-to-bottom order: the pixel at
+     * (col, row) is at index {@code row * getWidth() + col}. Use
+     * {@link Pixel#red(int)}, {@link Pixel#green(int)} and
+     * {@link Pixel#blue(int)} to unpack an entry, and {@link Pixel#pack} to
+     * build one.
+     *
+     * @return a copy of the packed colors of this image
+     */
+    public int[] getPixels() {
+        return pixels().clone();
+    }
+
+    /**
+     * Returns the statistics of the colors of this picture (histograms,
+     * means, color frequencies, ...), computing them the first time they are
+     * asked for. Pictures never change, so the statistics are kept with the
+     * picture and every manipulation that needs them shares the same pass;
+     * rotations and mirrors share them too, since they have the same
+     * pixels. Two threads asking at the same time may both compute them.
+     *
+     * @return the statistics
+     */
+    public PictureStats stats() {
+        PictureStats s = stats;
+        if (s == null) {
+            s = PictureStats.of(pixels(), width, height);
+            stats = s;
+        }
+        return s;
+    }
+
+    /**
+     * Returns a level of this picture's pyramid: the picture shrunk to half
+     * its size {@code k} times, each time averaging blocks of 2 x 2 pixels
+     * into one (an odd last row or column is averaged in blocks of 2 x 1 or
+     * 1 x 2). Level 0 is the picture itself. A level never gets smaller than
+     * 1 x 1.
+     *
+     * Levels are built the first time they are asked for, from the level
+     * above, and kept as long as this picture is. The whole pyramid takes
+     * at most a third of the memory of the picture. This is for previews:
+     * a manipulation on a level shrunk k times touches 4^k times fewer
+     * pixels.
+     *
+     * @param k the number of times to halve the size, at least 0
+     * @return the level
+     */
+    public PixelPicture level(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("negative level " + k);
+        }
+        synchronized (levels) {
+            PixelPicture pic = levels.isEmpty() ? this : levels.get(levels.size() - 1);
+            while (levels.size() < k) {
+                pic = pic.halved();
+                levels.add(pic);
+            }
+            return k == 0 ? this : levels.get(k - 1);
+        }
+    }
+
+    /**
+     * Returns the largest level of the pyramid (see {@link #level}) whose
+     * sides are at most {@code maxSide} pixels long, or the 1 x 1 level.
+     *
+     * @param maxSide the longest side to allow, at least 1
+     * @return the level
+     */
+    public PixelPicture levelAtMost(int maxSide) {
+        int k = 0;
+        int side = Math.max(width, height);
+        while (side > Math.max(maxSide, 1)) {
+            side = (side + 1) / 2;
+            k++;
+        }
+        return level(k);
+    }
+
+    private PixelPicture halved() {
+        int w = width;
+        int h = height;
+        int hw = (w + 1) / 2;
+        int hh = (h + 1) / 2;
+        int[] src = pixels();
+        int[] tgt = new int[hw * hh];
+        TileScheduler.forEachBand(hw, hh, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int row0 = 2 * y * w;
+                int row1 = Math.min(2 * y + 1, h - 1) * w; // the same row at an odd end
+                for (int x = 0; x < hw; x++) {
+                    int c0 = 2 * x;
+                    int c1 = Math.min(2 * x + 1, w - 1);
+                    int p0 = src[row0 + c0];
+                    int p1 = src[row0 + c1];
+                    int p2 = src[row1 + c0];
+                    int p3 = src[row1 + c1];
+                    // the components of 4 pixels fit in 10 bits each
+                    int rb = (p0 & 0xFF00FF) + (p1 & 0xFF00FF) + (p2 & 0xFF00FF)
+                            + (p3 & 0xFF00FF) + 0x020002;
+                    int g = (p0 & 0xFF00) + (p1 & 0xFF00) + (p2 & 0xFF00) + (p3 & 0xFF00)
+                            + 0x0200;
+                    tgt[y * hw + x] = ((rb >> 2) & 0xFF00FF) | ((g >> 2) & 0xFF00);
+                }
+            }
+        });
+        return new PixelPicture(hw, hh, tgt);
+    }
+
     /**
      * Creates an ImageIcon, suitable for display by Swing components.
      * 
@@ -171,35 +522,115 @@ public class PixelPicture {
         return new ImageIcon(copy.bufferedImage);
     }
 
+    /**
+     * The image backed by this picture's raster, for drawing it without
+     * copying it (see {@link PictureDisplay}). Callers within the package
+     * must not draw on it.
+     */
+    BufferedImage sharedImage() {
+        materialize();
+        return bufferedImage;
+    }
+
     /**
      * Compute the difference between two images.
      *
      * This difference sums the pixel-by-pixel differences
-     * between components of a pixel. It is most useful
-     * for SMALL images.
+     * between components of a pixel. Sums too large for an int are reported
+     * as Integer.MAX_VALUE; use {@link #difference(PixelPicture, PixelPicture)}
+     * to get the exact sum for large images.
      * 
      * @param p0 first image to compare
      * @param p1 second image to compare
      * @return sum of all differences between pixel components
      */
     public static int diff(PixelPicture p0, PixelPicture p1) {
+        return (int) Math.min(difference(p0, p1), Integer.MAX_VALUE);
+    }
 
+    /**
+     * Computes the sum of the differences between the components of
+     * corresponding pixels, like {@link #diff}, but as a long so it can not
+     * overflow. The rows are compared in parallel by the
+     * {@link TileScheduler}.
+     *
+     * @param p0 first image to compare
+     * @param p1 second image to compare
+     * @return sum of all differences between pixel components, or
+     *         Long.MAX_VALUE if the images have different sizes
+     */
+    public static long difference(PixelPicture p0, PixelPicture p1) {
         if (p0.getHeight() != p1.getHeight() || p0.getWidth() != p1.getWidth()) {
-            return Integer.MAX_VALUE;
+            return Long.MAX_VALUE;
         }
-        int diff = 0;
-        Pixel[][] b0 = p0.getBitmap();
-        Pixel[][] b1 = p1.getBitmap();
         int w = p0.getWidth();
-        int h = p0.getHeight();
-        for (int row = 0; row < h; row++) {
-            for (int col = 0; col < w; col++) {
-                Pixel pix0 = b0[row][col];
-                Pixel pix1 = b1[row][col];
-                diff += Math.abs(pix0.getRed() - pix1.getRed()) +
-                        Math.abs(pix0.getBlue() - pix1.getBlue()) +
-                        Math.abs(pix0.getGreen() - pix1.getGreen());
-            }
+        int[] b0 = p0.pixels();
+        int[] b1 = p1.pixels();
+        LongAdder sum = new LongAdder();
+        TileScheduler.forEachBand(w, p0.getHeight(), (start, end) -> {
+            sum.add(difference(b0, b1, start * w, end * w, 1));
+        });
+        return sum.sum();
+    }
+
+    /**
+     * Like {@link #difference(PixelPicture, PixelPicture)}, but gives up as
+     * soon as the sum is known to exceed {@code threshold}. A regression
+     * check that only needs to know whether two images are (nearly) the same
+     * can stop at the first rows that differ.
+     *
+     * @param p0        first image to compare
+     * @param p1        second image to compare
+     * @param threshold the largest difference that is of interest
+     * @return the sum of all differences if it is at most threshold, and
+     *         otherwise some value greater than threshold
+     */
+    public static long difference(PixelPicture p0, PixelPicture p1, long threshold) {
+        if (p0.getHeight() != p1.getHeight() || p0.getWidth() != p1.getWidth()) {
+            return Long.MAX_VALUE;
+        }
+        int w = p0.getWidth();
+        int[] b0 = p0.pixels();
+        int[] b1 = p1.pixels();
+        long sum = 0;
+        // check after each row, to keep the inner loop simple
+        for (int start = 0; start < b0.length && sum <= threshold; start += w) {
+            sum += difference(b0, b1, start, start + w, 1);
+        }
+        return sum;
+    }
+
+    /**
+     * Estimates the difference between two images by comparing only every
+     * {@code stride}th pixel (in row-major order). A result of 0 does not
+     * prove the images are equal, but any large change is very likely to
+     * show up. Strides that do not divide the width make the samples move
+     * across the columns from row to row.
+     *
+     * @param p0     first image to compare
+     * @param p1     second image to compare
+     * @param stride the distance between compared pixels, at least 1
+     * @return the sum of the differences between the sampled pixels, times
+     *         stride, or Long.MAX_VALUE if the images have different sizes
+     */
+    public static long sampledDifference(PixelPicture p0, PixelPicture p1, int stride) {
+        if (stride < 1) {
+            throw new IllegalArgumentException("stride must be at least 1, got " + stride);
+        }
+        if (p0.getHeight() != p1.getHeight() || p0.getWidth() != p1.getWidth()) {
+            return Long.MAX_VALUE;
+        }
+        return stride * difference(p0.pixels(), p1.pixels(), 0, p0.pixels().length, stride);
+    }
+
+    private static long difference(int[] b0, int[] b1, int from, int to, int stride) {
+        long diff = 0;
+        for (int i = from; i < to; i += stride) {
+            int pix0 = b0[i];
+            int pix1 = b1[i];
+            diff += Math.abs(Pixel.red(pix0) - Pixel.red(pix1)) +
+                    Math.abs(Pixel.blue(pix0) - Pixel.blue(pix1)) +
+                    Math.abs(Pixel.green(pix0) - Pixel.green(pix1));
         }
         return diff;
     }
@@ -228,7 +659,11 @@ public class PixelPicture {
 
     private static Pattern suffix = Pattern.compile(".*\\.(\\w{3,4})");
 
-    public void save(String filename) {
+    /**
+     * The image format to write a file in, detected from its suffix. Files
+     * without a recognizable suffix are written as PNG.
+     */
+    static String formatOf(String filename) {
         String type = "png";
 
         // detect the file type
@@ -236,6 +671,22 @@ public class PixelPicture {
         if (m.matches()) {
             type = m.group(1);
         }
+        return type;
+    }
+
+    /**
+     * Saves the image to a file, in the format given by its suffix. Files
+     * ending in {@code .pxr} are written uncompressed (see {@link RawRaster}).
+     *
+     * @param filename the file to write to
+     */
+    public void save(String filename) {
+        if (RawRaster.isRaw(filename)) {
+            RawRaster.write(this, filename);
+            return;
+        }
+        String type = formatOf(filename);
+        materialize();
 
         try {
             ImageIO.write(bufferedImage, type, new File(filename));
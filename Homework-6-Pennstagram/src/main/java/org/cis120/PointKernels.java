@@ -0,0 +1,91 @@
+package org.cis120;
+
+/**
+ * Array-at-a-time versions of the simple per-pixel manipulations, used by the
+ * methods of {@link SimpleManipulations} when they run on their own (rather
+ * than fused into a {@link Pipeline}). The manipulations that are faster as
+ * lookup tables (average gray scale, scaling) use a {@link ColorTransform}
+ * instead.
+ *
+ * Each method processes the packed {@code 0xRRGGBB} pixels
+ * {@code src[from] .. src[to - 1]} into the same positions of {@code tgt},
+ * and must give exactly the same result as the corresponding point stage.
+ *
+ * There are two implementations. {@link Scalar} is plain Java. The other,
+ * VectorPointKernels, uses the incubating Vector API to process several
+ * pixels per instruction; it lives in src/vector/java and is only compiled by
+ * the {@code vector} Maven profile, since the API needs
+ * {@code --add-modules jdk.incubator.vector} at compile time and at run time.
+ * {@link #INSTANCE} is the vector implementation if it is present and the
+ * module is available, and the scalar one otherwise. Setting the system
+ * property {@code pennstagram.vector} to {@code false} forces the scalar one.
+ */
+interface PointKernels {
+
+    /**
+     * The implementation to use.
+     */
+    PointKernels INSTANCE = Loader.load();
+
+    void luminosity(int[] src, int[] tgt, int from, int to);
+
+    void invert(int[] src, int[] tgt, int from, int to);
+
+    /**
+     * Blends {@code src} (with weight alpha) and {@code other} (with weight
+     * {@code 1 - alpha}) into tgt.
+     */
+    void blend(int[] src, int[] other, int[] tgt, int from, int to, double alpha);
+
+    /**
+     * The straightforward implementation, using the same arithmetic as the
+     * formulas of {@link SimpleManipulations}.
+     */
+    class Scalar implements PointKernels {
+        @Override
+        public void luminosity(int[] src, int[] tgt, int from, int to) {
+            for (int i = from; i < to; i++) {
+                int p = src[i];
+                int avg = (int) Math.round(
+                        0.299 * Pixel.red(p) + 0.587 * Pixel.green(p) + 0.114 * Pixel.blue(p)
+                );
+                tgt[i] = Pixel.pack(avg, avg, avg);
+            }
+        }
+
+        @Override
+        public void invert(int[] src, int[] tgt, int from, int to) {
+            for (int i = from; i < to; i++) {
+                tgt[i] = src[i] ^ 0xFFFFFF;
+            }
+        }
+
+        @Override
+        public void blend(int[] src, int[] other, int[] tgt, int from, int to, double alpha) {
+            for (int i = from; i < to; i++) {
+                tgt[i] = SimpleManipulations.blendPixel(alpha, src[i], other[i]);
+            }
+        }
+    }
+
+    /**
+     * Picks the implementation when the interface is initialized.
+     */
+    final class Loader {
+        private Loader() {
+        }
+
+        static PointKernels load() {
+            if (!Boolean.parseBoolean(System.getProperty("pennstagram.vector", "true"))) {
+                return new Scalar();
+            }
+            try {
+                return (PointKernels) Class.forName("org.cis120.VectorPointKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // not compiled in, or jdk.incubator.vector is not available
+                return new Scalar();
+            }
+        }
+    }
+}
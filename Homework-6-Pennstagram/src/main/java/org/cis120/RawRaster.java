@@ -0,0 +1,126 @@
+package org.cis120;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes PixelPictures in an uncompressed raster format, meant for
+ * intermediate images that are saved by one stage of a job and loaded by the
+ * next. Files in this format use the suffix {@link #SUFFIX}, and
+ * {@link PixelPicture#PixelPicture(String)} and {@link PixelPicture#save}
+ * recognize it.
+ *
+ * A file is a 16-byte header followed by the packed {@code 0xRRGGBB} pixels
+ * in left-to-right, top-to-bottom order, all as little-endian ints:
+ *
+ * <pre>
+ *   magic ("PXR1")   width   height   0
+ *   pixel (0, 0)     pixel (1, 0)     ...
+ * </pre>
+ *
+ * The file is read and written through a memory-mapped buffer, so no time is
+ * spent compressing, and loading amounts to one bulk copy out of the page
+ * cache. A PNG of a photo is several times smaller, so this is only worth it
+ * for files that are short-lived or read many times.
+ */
+public class RawRaster {
+
+    /**
+     * The file suffix of raw rasters.
+     */
+    public static final String SUFFIX = "pxr";
+
+    private static final int MAGIC = 0x31525850; // "PXR1" read as little-endian
+    private static final int HEADER_BYTES = 16;
+
+    // the most bytes mapped at once; a mapping is limited to 2GB
+    private static final int CHUNK_BYTES = 1 << 28;
+
+    /**
+     * Determines whether a file name has the raw raster suffix.
+     *
+     * @param filename the name of a file
+     * @return true if the file should be read and written as a raw raster
+     */
+    public static boolean isRaw(String filename) {
+        return SUFFIX.equalsIgnoreCase(PixelPicture.formatOf(filename));
+    }
+
+    /**
+     * Writes a picture as a raw raster, replacing the file if it exists.
+     *
+     * @param pic      the picture to write
+     * @param filename the file to write to
+     */
+    public static void write(PixelPicture pic, String filename) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] rgb = pic.pixels();
+        Path path = Paths.get(filename);
+        try (FileChannel ch = FileChannel.open(
+                path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(w).putInt(h).putInt(0);
+
+            for (int start = 0; start < rgb.length; start += CHUNK_BYTES / 4) {
+                int n = Math.min(CHUNK_BYTES / 4, rgb.length - start);
+                IntBuffer chunk = ch.map(
+                        FileChannel.MapMode.READ_WRITE, HEADER_BYTES + 4L * start, 4L * n
+                ).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                chunk.put(rgb, start, n);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads a raw raster.
+     *
+     * @param filename the file to read
+     * @return the picture stored in the file
+     */
+    public static PixelPicture read(String filename) {
+        Path path = Paths.get(filename);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES) {
+                throw new IOException(filename + " is too short to be a raw raster");
+            }
+            MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(filename + " is not a raw raster");
+            }
+            int w = header.getInt();
+            int h = header.getInt();
+            long count = (long) w * h;
+            if (w <= 0 || h <= 0 || count > Integer.MAX_VALUE
+                    || ch.size() != HEADER_BYTES + 4 * count) {
+                throw new IOException(
+                        filename + " has the wrong size for a " + w + "x" + h + " raster"
+                );
+            }
+
+            int[] rgb = new int[(int) count];
+            for (int start = 0; start < rgb.length; start += CHUNK_BYTES / 4) {
+                int n = Math.min(CHUNK_BYTES / 4, rgb.length - start);
+                IntBuffer chunk = ch.map(
+                        FileChannel.MapMode.READ_ONLY, HEADER_BYTES + 4L * start, 4L * n
+                ).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                chunk.get(rgb, start, n);
+            }
+            return new PixelPicture(w, h, rgb);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
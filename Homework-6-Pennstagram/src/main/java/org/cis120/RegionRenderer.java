@@ -0,0 +1,194 @@
+package org.cis120;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders a pipeline over a sequence of input pictures, recomputing only the
+ * parts of the output that can have changed since the previous input.
+ *
+ * This pays off when the input changes locally, e.g. an effect is previewed
+ * over a picture that is being edited with flood fills or painted regions.
+ * The renderer compares the new input with the previous one in
+ * {@link #TILE} x {@link #TILE} tiles. An output tile has to be recomputed
+ * only if it is within reach of a changed input tile, where the reach of the
+ * pipeline is the sum of the radii of its {@link Pipeline.LocalStage}s
+ * (point stages have radius 0). Every other output tile is copied from the
+ * previous output. The recomputed tiles are grouped into horizontal runs,
+ * and each run is rendered from a crop of the input that extends the run by
+ * the reach on every side.
+ *
+ * Pipelines with any other kind of picture stage (border, flood, ...) can
+ * not be rendered by region, and are always rendered in full. Changing a
+ * parameter of the pipeline itself changes every output pixel, so that
+ * needs a new renderer.
+ *
+ * The result is always the same picture as {@link Pipeline#apply}.
+ */
+public class RegionRenderer {
+
+    /**
+     * The width and height of the tiles that are compared and recomputed
+     * (edge tiles may be smaller).
+     */
+    public static final int TILE = 64;
+
+    private final Pipeline pipeline;
+    private final boolean local;
+    private final int reach;
+
+    private PixelPicture lastInput;
+    private PixelPicture lastOutput;
+    private int tilesRendered;
+
+    /**
+     * Creates a renderer for a pipeline.
+     *
+     * @param pipeline the manipulation to render
+     */
+    public RegionRenderer(Pipeline pipeline) {
+        this.pipeline = pipeline;
+        boolean allLocal = true;
+        int sum = 0;
+        for (Object stage : pipeline.stages()) {
+            if (stage instanceof Pipeline.LocalStage) {
+                sum += ((Pipeline.LocalStage) stage).radius();
+            } else if (!(stage instanceof Pipeline.PointStage)) {
+                allLocal = false;
+            }
+        }
+        this.local = allLocal;
+        this.reach = sum;
+    }
+
+    /**
+     * Runs the pipeline on a picture, reusing as much of the previous
+     * result as possible.
+     *
+     * @param input the input picture, which is not modified
+     * @return the same picture as {@code pipeline.apply(input)}
+     */
+    public PixelPicture render(PixelPicture input) {
+        int w = input.getWidth();
+        int h = input.getHeight();
+        int across = (w + TILE - 1) / TILE;
+        int down = (h + TILE - 1) / TILE;
+
+        if (input == lastInput) {
+            tilesRendered = 0;
+            return lastOutput;
+        }
+        if (!local || lastInput == null || lastInput.getWidth() != w
+                || lastInput.getHeight() != h) {
+            lastOutput = pipeline.apply(input);
+            lastInput = input;
+            tilesRendered = across * down;
+            return lastOutput;
+        }
+
+        // output tiles within reach of a changed input tile
+        int k = (reach + TILE - 1) / TILE;
+        boolean[] dirty = new boolean[across * down];
+        int[] src = input.pixels();
+        int[] old = lastInput.pixels();
+        for (int ty = 0; ty < down; ty++) {
+            for (int tx = 0; tx < across; tx++) {
+                if (!tileChanged(old, src, w, h, tx, ty)) {
+                    continue;
+                }
+                for (int y = Math.max(ty - k, 0); y <= Math.min(ty + k, down - 1); y++) {
+                    for (int x = Math.max(tx - k, 0); x <= Math.min(tx + k, across - 1); x++) {
+                        dirty[y * across + x] = true;
+                    }
+                }
+            }
+        }
+
+        int[] tgt = lastOutput.getPixels();
+        tilesRendered = 0;
+        for (int ty = 0; ty < down; ty++) {
+            int tx = 0;
+            while (tx < across) {
+                if (!dirty[ty * across + tx]) {
+                    tx++;
+                    continue;
+                }
+                int first = tx;
+                while (tx < across && dirty[ty * across + tx]) {
+                    tx++;
+                }
+                tilesRendered += tx - first;
+
+                int x0 = first * TILE;
+                int y0 = ty * TILE;
+                int x1 = Math.min(tx * TILE, w);
+                int y1 = Math.min(y0 + TILE, h);
+                renderRun(input, tgt, x0, y0, x1, y1);
+            }
+        }
+
+        lastInput = input;
+        lastOutput = new PixelPicture(w, h, tgt);
+        return lastOutput;
+    }
+
+    /**
+     * @return the number of tiles recomputed by the last call to
+     *         {@link #render}
+     */
+    public int tilesRendered() {
+        return tilesRendered;
+    }
+
+    private static boolean tileChanged(int[] a, int[] b, int w, int h, int tx, int ty) {
+        int x0 = tx * TILE;
+        int x1 = Math.min(x0 + TILE, w);
+        for (int row = ty * TILE; row < Math.min((ty + 1) * TILE, h); row++) {
+            for (int i = row * w + x0; i < row * w + x1; i++) {
+                if (a[i] != b[i]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Recomputes the output rectangle [x0, x1) x [y0, y1) into tgt.
+     */
+    private void renderRun(PixelPicture input, int[] tgt, int x0, int y0, int x1, int y1) {
+        int w = input.getWidth();
+        int h = input.getHeight();
+        int cx0 = Math.max(x0 - reach, 0);
+        int cy0 = Math.max(y0 - reach, 0);
+        int cw = Math.min(x1 + reach, w) - cx0;
+        int ch = Math.min(y1 + reach, h) - cy0;
+
+        int[] src = input.pixels();
+        int[] crop = new int[cw * ch];
+        for (int row = 0; row < ch; row++) {
+            System.arraycopy(src, (cy0 + row) * w + cx0, crop, row * cw, cw);
+        }
+
+        PixelPicture pic = new PixelPicture(cw, ch, crop);
+        List<Pipeline.PointStage> pending = new ArrayList<Pipeline.PointStage>();
+        for (Object stage : pipeline.stages()) {
+            if (stage instanceof Pipeline.PointStage) {
+                pending.add((Pipeline.PointStage) stage);
+            } else {
+                pic = Pipeline.apply(pic, Pipeline.compose(pending), cx0, cy0, w, h);
+                pending.clear();
+                pic = ((Pipeline.PictureStage) stage).apply(pic);
+                if (pic.getWidth() != cw || pic.getHeight() != ch) {
+                    throw new IllegalStateException("a local stage changed the picture size");
+                }
+            }
+        }
+        pic = Pipeline.apply(pic, Pipeline.compose(pending), cx0, cy0, w, h);
+
+        int[] out = pic.pixels();
+        for (int row = y0; row < y1; row++) {
+            System.arraycopy(out, (row - cy0) * cw + (x0 - cx0), tgt, row * w + x0, x1 - x0);
+        }
+    }
+}
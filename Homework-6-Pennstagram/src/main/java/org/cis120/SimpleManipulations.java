@@ -1,5 +1,7 @@
 package org.cis120;
 
+import java.util.Arrays;
+
 /*
  * The purpose of this assignment is to (re-) acquaint you with Java.
  *
@@ -42,26 +44,16 @@ public class SimpleManipulations {
      * (1, 1) (0, 1)
      * (1, 2) (0, 2)
      *
-     * This method implements this "relabeling," copying pixels from their
-     * old coordinates to their new coordinates.
+     * This method implements this "relabeling." No pixels are copied until
+     * the rotated picture is used: it is a view of the original that does
+     * the relabeling when its pixels are needed, and further rotations and
+     * mirrors of it are folded into the same view.
      *
      * @param pic The original picture to rotate.
      * @return The rotated picture.
      */
     public static PixelPicture rotateCW(PixelPicture pic) {
-        int w = pic.getWidth();
-        int h = pic.getHeight();
-
-        Pixel[][] src = pic.getBitmap();
-        Pixel[][] tgt = new Pixel[w][h]; // swap coordinates
-
-        for (int col = 0; col < w; col++) {
-            for (int row = 0; row < h; row++) {
-                tgt[col][h - row - 1] = src[row][col]; // swap coordinates
-            }
-        }
-
-        return new PixelPicture(tgt);
+        return pic.rotatedCW();
     }
 
     /**
@@ -80,14 +72,43 @@ public class SimpleManipulations {
      * (0, 1) (1, 1)
      * (0, 0) (1, 0)
      *
-     * Your job is to implement this "relabeling," copying pixels from their
-     * old coordinates to their new coordinates.
+     * Like {@link #rotateCW}, this returns a view of the original picture.
      *
      * @param pic The original picture to rotate.
      * @return The rotated picture.
      */
     public static PixelPicture rotateCCW(PixelPicture pic) {
-        return pic;
+        return pic.rotatedCCW();
+    }
+
+    /**
+     * Mirror a picture horizontally, swapping its left and right sides.
+     *
+     * (0, 0) (0, 1) (0, 2)          (0, 2) (0, 1) (0, 0)
+     * (1, 0) (1, 1) (1, 2)  becomes (1, 2) (1, 1) (1, 0)
+     *
+     * Like {@link #rotateCW}, this returns a view of the original picture.
+     *
+     * @param pic The original picture to mirror.
+     * @return The mirrored picture.
+     */
+    public static PixelPicture mirrorHorizontal(PixelPicture pic) {
+        return pic.mirroredHorizontally();
+    }
+
+    /**
+     * Mirror a picture vertically, swapping its top and bottom.
+     *
+     * (0, 0) (0, 1) (0, 2)          (1, 0) (1, 1) (1, 2)
+     * (1, 0) (1, 1) (1, 2)  becomes (0, 0) (0, 1) (0, 2)
+     *
+     * Like {@link #rotateCW}, this returns a view of the original picture.
+     *
+     * @param pic The original picture to mirror.
+     * @return The mirrored picture.
+     */
+    public static PixelPicture mirrorVertical(PixelPicture pic) {
+        return pic.mirroredVertically();
     }
 
     /**
@@ -101,7 +122,41 @@ public class SimpleManipulations {
     public static PixelPicture border(
             PixelPicture pic, int borderWidth, Pixel borderColor
     ) {
-        return pic;
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int bw = Math.max(borderWidth, 0);
+        int tw = w + 2 * bw;
+        int th = h + 2 * bw;
+
+        int[] src = pic.pixels();
+        int[] tgt = new int[tw * th];
+        Arrays.fill(tgt, borderColor.getRGB());
+        TileScheduler.forEachBand(w, h, (start, end) -> {
+            for (int row = start; row < end; row++) {
+                System.arraycopy(src, row * w, tgt, (row + bw) * tw + bw, w);
+            }
+        });
+        return new PixelPicture(tw, th, tgt);
+    }
+
+    /**
+     * A computation over a range of the packed pixels of a picture; see
+     * {@link PointKernels}.
+     */
+    private interface Kernel {
+        void run(int[] src, int[] tgt, int from, int to);
+    }
+
+    /**
+     * Runs a kernel over every pixel of a picture, in parallel row bands.
+     */
+    private static PixelPicture mapPixels(PixelPicture pic, Kernel kernel) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] src = pic.pixels();
+        int[] tgt = new int[w * h];
+        TileScheduler.forEachBand(w, h, (start, end) -> kernel.run(src, tgt, start * w, end * w));
+        return new PixelPicture(w, h, tgt);
     }
 
     /**
@@ -130,21 +185,17 @@ public class SimpleManipulations {
      *         picture
      */
     public static PixelPicture grayScaleLuminosity(PixelPicture pic) {
-        int w = pic.getWidth();
-        int h = pic.getHeight();
+        return mapPixels(pic, PointKernels.INSTANCE::luminosity);
+    }
 
-        Pixel[][] bmp = pic.getBitmap();
-        for (int col = 0; col < w; col++) {
-            for (int row = 0; row < h; row++) {
-                Pixel p = bmp[row][col];
-                int r = p.getRed();
-                int g = p.getGreen();
-                int b = p.getBlue();
-                int avg = (int) Math.round(0.299 * r + 0.587 * g + 0.114 * b);
-                bmp[row][col] = new Pixel(avg, avg, avg);
-            }
-        }
-        return new PixelPicture(bmp);
+    /**
+     * The per-pixel step of {@link #grayScaleLuminosity}, for use in a
+     * {@link Pipeline}.
+     *
+     * @return a point stage computing the luminosity of each pixel
+     */
+    public static Pipeline.PointStage grayScaleLuminosityStage() {
+        return ColorTransform.mix(0.299, 0.587, 0.114, 1.0);
     }
 
     /**
@@ -158,7 +209,17 @@ public class SimpleManipulations {
      * @return new picture with inverted colors
      */
     public static PixelPicture invertColors(PixelPicture pic) {
-        return pic;
+        return mapPixels(pic, PointKernels.INSTANCE::invert);
+    }
+
+    /**
+     * The per-pixel step of {@link #invertColors}, for use in a
+     * {@link Pipeline}.
+     *
+     * @return a point stage inverting each pixel
+     */
+    public static Pipeline.PointStage invertColorsStage() {
+        return ColorTransform.eachChannel(c -> 255 - c);
     }
 
     /**
@@ -178,9 +239,18 @@ public class SimpleManipulations {
      * @param pic the original picture
      * @return new grayscale image
      */
-
     public static PixelPicture grayScaleAverage(PixelPicture pic) {
-        return pic;
+        return ((ColorTransform) grayScaleAverageStage()).apply(pic);
+    }
+
+    /**
+     * The per-pixel step of {@link #grayScaleAverage}, for use in a
+     * {@link Pipeline}.
+     *
+     * @return a point stage averaging the components of each pixel
+     */
+    public static Pipeline.PointStage grayScaleAverageStage() {
+        return ColorTransform.mix(1.0, 1.0, 1.0, 3.0);
     }
 
     /**
@@ -204,7 +274,26 @@ public class SimpleManipulations {
     public static PixelPicture scaleColors(
             PixelPicture pic, double rfactor, double gfactor, double bfactor
     ) {
-        return pic;
+        return ((ColorTransform) scaleColorsStage(rfactor, gfactor, bfactor)).apply(pic);
+    }
+
+    /**
+     * The per-pixel step of {@link #scaleColors}, for use in a
+     * {@link Pipeline}.
+     *
+     * @param rfactor red factor
+     * @param gfactor green factor
+     * @param bfactor blue factor
+     * @return a point stage scaling the components of each pixel
+     */
+    public static Pipeline.PointStage scaleColorsStage(
+            double rfactor, double gfactor, double bfactor
+    ) {
+        return ColorTransform.perChannel(
+                r -> (int) Math.round(r * rfactor),
+                g -> (int) Math.round(g * gfactor),
+                b -> (int) Math.round(b * bfactor)
+        );
     }
 
     /**
@@ -243,7 +332,46 @@ public class SimpleManipulations {
     public static PixelPicture alphaBlend(
             double alpha, PixelPicture pic, PixelPicture f
     ) {
-        return pic;
+        if (f.getWidth() != pic.getWidth() || f.getHeight() != pic.getHeight()) {
+            return pic;
+        }
+        int[] other = f.pixels();
+        return mapPixels(
+                pic,
+                (src, tgt, from, to) -> PointKernels.INSTANCE
+                        .blend(src, other, tgt, from, to, alpha)
+        );
+    }
+
+    /**
+     * The per-pixel step of {@link #alphaBlend}, for use in a
+     * {@link Pipeline}. Each pixel is blended with the pixel at the same
+     * position in {@code f}. If {@code f} is not the same size as the image
+     * the stage runs on, the stage leaves the image unchanged.
+     *
+     * @param alpha weight of the pipeline's pixel
+     * @param f     picture to blend in, with weight {@code 1 - alpha}
+     * @return a point stage blending each pixel with {@code f}
+     */
+    public static Pipeline.PointStage alphaBlendStage(double alpha, PixelPicture f) {
+        final int[] other = f.pixels();
+        return (w, h) -> {
+            if (f.getWidth() != w || f.getHeight() != h) {
+                return (p, col, row) -> p;
+            }
+            return (p, col, row) -> blendPixel(alpha, p, other[row * w + col]);
+        };
+    }
+
+    /**
+     * Blends two packed colors component-wise with {@link #weightedAverage}.
+     */
+    static int blendPixel(double alpha, int x, int y) {
+        return Pixel.pack(
+                weightedAverage(alpha, Pixel.red(x), Pixel.red(y)),
+                weightedAverage(alpha, Pixel.green(x), Pixel.green(y)),
+                weightedAverage(alpha, Pixel.blue(x), Pixel.blue(y))
+        );
     }
 
     /*
@@ -290,34 +418,32 @@ public class SimpleManipulations {
      * @return new image with with dark edges
      */
     public static PixelPicture vignette(PixelPicture pic) {
-        int w = pic.getWidth();
-        int h = pic.getHeight();
-        double cx = (w - 1) / 2.0;
-        double cy = (h - 1) / 2.0; // cx, cy is center pixel in the image
-
-        Pixel[][] bmp = pic.getBitmap();
-        for (int col = 0; col < w; col++) {
-            for (int row = 0; row < h; row++) {
-                double dx = (double) (col - cx);
-                double dy = (double) (row - cy);
-
-                double r = Math.sqrt(cx * cx + cy * cy);
-                // check for division by zero
-                if (r == 0) {
-                    return pic;
-                }
+        return Pipeline.apply(pic, vignetteStage());
+    }
 
-                double d = Math.sqrt((dx * dx) + (dy * dy)) / r;
-                double factor = 1.0 - d * d;
+    /**
+     * The per-pixel step of {@link #vignette}, for use in a {@link Pipeline}.
+     *
+     * @return a point stage darkening each pixel by its distance to the center
+     */
+    public static Pipeline.PointStage vignetteStage() {
+        return (w, h) -> {
+            // check for division by zero: the center is the only pixel
+            if (w * h <= 1) {
+                return (p, col, row) -> p;
+            }
 
-                bmp[row][col] = new Pixel(
-                        (int) Math.round(bmp[row][col].getRed() * factor),
-                        (int) Math.round(bmp[row][col].getGreen() * factor),
-                        (int) Math.round(bmp[row][col].getBlue() * factor)
+            // the factors only depend on the size, so they are computed
+            // once per size; see VignetteMasks for the formula
+            VignetteMasks.Mask mask = VignetteMasks.SHARED.get(w, h);
+            return (p, col, row) -> {
+                double factor = mask.factor(col, row);
+                return Pixel.pack(
+                        (int) Math.round(Pixel.red(p) * factor),
+                        (int) Math.round(Pixel.green(p) * factor),
+                        (int) Math.round(Pixel.blue(p) * factor)
                 );
-
-            }
-        }
-        return new PixelPicture(bmp);
+            };
+        };
     }
 }
@@ -0,0 +1,333 @@
+package org.cis120;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Vector;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Applies a per-pixel manipulation to an image file without ever loading the
+ * whole image into memory.
+ *
+ * The input is decoded in strips of whole rows through an ImageIO
+ * {@link ImageReader} with a source region, each strip is run through the
+ * point stage, and the result is handed to an {@link ImageWriter} as an image
+ * whose tiles are those strips. The writer pulls rows from top to bottom, so
+ * only one strip of input and one of output are in memory at a time, and
+ * images larger than the heap can be processed.
+ *
+ * Only point stages can be streamed, since any other stage needs pixels from
+ * outside the current strip; use {@link Pipeline#asPointStage()} to stream a
+ * pipeline of point stages.
+ *
+ * How well this scales depends on the formats. Formats that can be read at
+ * any row (BMP, TIFF) decode each strip directly. The PNG and JPEG readers
+ * have to decompress from the top of the file to reach a strip, so memory is
+ * still bounded by the strip size but decoding time grows with the number
+ * of strips. The PNG writer consumes the image a row at a time; writers that
+ * ask for the whole image at once (JPEG) will materialize it.
+ */
+public class StripProcessor {
+
+    /**
+     * The number of rows decoded at a time unless otherwise specified.
+     */
+    public static final int DEFAULT_STRIP_ROWS = 256;
+
+    private static final DirectColorModel RGB_MODEL = new DirectColorModel(
+            24, 0xFF0000, 0x00FF00, 0x0000FF
+    );
+
+    /**
+     * Reads {@code input}, applies {@code stage} to every pixel, and writes
+     * the result to {@code output}, {@link #DEFAULT_STRIP_ROWS} rows at a time.
+     * The output format is chosen from the suffix of {@code output}, as in
+     * {@link PixelPicture#save}.
+     *
+     * @param input  the image file to read
+     * @param output the image file to write
+     * @param stage  the per-pixel manipulation
+     */
+    public static void process(String input, String output, Pipeline.PointStage stage) {
+        process(input, output, stage, DEFAULT_STRIP_ROWS);
+    }
+
+    /**
+     * Like {@link #process(String, String, Pipeline.PointStage)}, with a
+     * given strip height. Peak memory use is proportional to
+     * {@code stripRows} times the width of the image.
+     *
+     * @param input     the image file to read
+     * @param output    the image file to write
+     * @param stage     the per-pixel manipulation
+     * @param stripRows the number of rows to decode at a time
+     */
+    public static void process(
+            String input, String output, Pipeline.PointStage stage, int stripRows
+    ) {
+        if (stripRows < 1) {
+            throw new IllegalArgumentException("strips need at least one row");
+        }
+        String type = PixelPicture.formatOf(output);
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(type);
+        if (!writers.hasNext()) {
+            throw new RuntimeException("no writer for image format " + type);
+        }
+        ImageWriter writer = writers.next();
+
+        // write to a new file next to the output and move it into place at
+        // the end, so that the input is intact while it is being read even
+        // if it is the output, and a failure leaves no partial output
+        Path target = new File(output).getAbsoluteFile().toPath();
+        Path temp;
+        try {
+            temp = Files.createTempFile(target.getParent(), ".strip-", ".tmp");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try (
+                ImageInputStream in = ImageIO.createImageInputStream(new File(input));
+                ImageOutputStream os = ImageIO.createImageOutputStream(temp.toFile())
+        ) {
+            if (in == null) {
+                throw new IOException("cannot read " + input);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("unrecognized image format: " + input);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                writer.setOutput(os);
+                writer.write(new StripImage(reader, stage, stripRows));
+            } finally {
+                reader.dispose();
+                writer.dispose();
+            }
+        } catch (IOException e) {
+            temp.toFile().delete();
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            temp.toFile().delete();
+            throw e;
+        }
+        try {
+            try {
+                Files.move(
+                        temp, target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE
+                );
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            temp.toFile().delete();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The processed image, computed one strip (tile) at a time as the writer
+     * asks for it. Only the most recently used strip is kept.
+     */
+    private static class StripImage implements RenderedImage {
+        private final ImageReader reader;
+        private final Pipeline.PointOp op;
+        private final int width;
+        private final int height;
+        private final int rows;
+
+        private int cachedStrip = -1;
+        private Raster cached;
+
+        StripImage(ImageReader reader, Pipeline.PointStage stage, int rows) throws IOException {
+            this.reader = reader;
+            this.width = reader.getWidth(0);
+            this.height = reader.getHeight(0);
+            this.rows = rows;
+            this.op = stage.forSize(width, height);
+        }
+
+        /**
+         * Decodes and processes strip ty, or returns it if it is the cached one.
+         */
+        private synchronized Raster strip(int ty) {
+            if (ty == cachedStrip) {
+                return cached;
+            }
+            int y0 = ty * rows;
+            int n = Math.min(rows, height - y0);
+            BufferedImage decoded;
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle(0, y0, width, n));
+                decoded = reader.read(0, param);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            // draw onto black, exactly as PixelPicture does when loading
+            BufferedImage rgb = new BufferedImage(width, n, BufferedImage.TYPE_INT_RGB);
+            Graphics g = rgb.getGraphics();
+            g.drawImage(decoded, 0, 0, null);
+            g.dispose();
+            int[] src = ((DataBufferInt) rgb.getRaster().getDataBuffer()).getData();
+
+            int[] tgt = new int[width * rows];
+            TileScheduler.forEachBand(width, n, (start, end) -> {
+                for (int row = start; row < end; row++) {
+                    int i = row * width;
+                    for (int col = 0; col < width; col++, i++) {
+                        tgt[i] = op.apply(src[i] & 0xFFFFFF, col, y0 + row) & 0xFFFFFF;
+                    }
+                }
+            });
+
+            cached = Raster.createPackedRaster(
+                    new DataBufferInt(tgt, tgt.length), width, rows, width,
+                    RGB_MODEL.getMasks(), new Point(0, y0)
+            );
+            cachedStrip = ty;
+            return cached;
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return RGB_MODEL;
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return RGB_MODEL.createCompatibleSampleModel(width, rows);
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return (height + rows - 1) / rows;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return width;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return rows;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            return strip(tileY);
+        }
+
+        @Override
+        public Raster getData() {
+            return getData(new Rectangle(0, 0, width, height));
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            WritableRaster r = RGB_MODEL.createCompatibleWritableRaster(rect.width, rect.height)
+                    .createWritableTranslatedChild(rect.x, rect.y);
+            return copyData(r);
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster r) {
+            if (r == null) {
+                r = RGB_MODEL.createCompatibleWritableRaster(width, height);
+            }
+            int first = Math.max(r.getMinY(), 0) / rows;
+            int last = (Math.min(r.getMinY() + r.getHeight(), height) - 1) / rows;
+            for (int ty = first; ty <= last; ty++) {
+                r.setRect(strip(ty)); // copies the overlap only
+            }
+            return r;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.cis120;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs image manipulations in parallel by splitting the image into bands of
+ * whole rows.
+ *
+ * A band covers just enough rows to hold about {@link #BAND_PIXELS} pixels
+ * (a few hundred kilobytes of packed ints). That way the rows a worker is
+ * reading and writing stay in its cache. Each output pixel is computed by
+ * exactly one band, and the computation does not depend on how the image
+ * was split. So the result is identical to the serial result for any
+ * degree of parallelism.
+ *
+ * Neighborhood operations such as blur read rows outside their own band
+ * (the "halo") directly from the input array. The input is shared and never
+ * written during the operation, so the halo rows never need to be copied.
+ *
+ * The degree of parallelism defaults to the number of available processors,
+ * or to the value of the {@code pennstagram.parallelism} system property if
+ * it is set. It can be changed with {@link #setParallelism(int)}; a
+ * parallelism of 1 runs everything on the calling thread.
+ *
+ * Changing the parallelism replaces the pool of worker threads rather than
+ * shutting it down, since another thread may be in the middle of a
+ * manipulation on it. Manipulations already running finish on the old pool,
+ * whose idle threads then exit on their own; later ones use the new pool.
+ */
+public class TileScheduler {
+
+    /**
+     * The approximate number of pixels in one band.
+     */
+    public static final int BAND_PIXELS = 1 << 16;
+
+    /**
+     * The work to do for one band of rows.
+     */
+    public interface Band {
+        /**
+         * @param startRow first row of the band (inclusive)
+         * @param endRow   last row of the band (exclusive)
+         */
+        void run(int startRow, int endRow);
+    }
+
+    private static volatile int parallelism = Integer.getInteger(
+            "pennstagram.parallelism", Runtime.getRuntime().availableProcessors()
+    );
+
+    // the pool for the current parallelism, made when first needed
+    private static volatile ForkJoinPool pool;
+
+    /**
+     * @return the number of threads manipulations may use
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads manipulations may use. A value of 1 turns
+     * off parallel execution.
+     *
+     * @param n the degree of parallelism, at least 1
+     */
+    public static synchronized void setParallelism(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, got " + n);
+        }
+        if (n != parallelism) {
+            // the old pool may still be in use, so let it drain instead of
+            // shutting it down
+            pool = null;
+            parallelism = n;
+        }
+    }
+
+    private static ForkJoinPool pool() {
+        ForkJoinPool p = pool;
+        if (p != null) {
+            return p;
+        }
+        synchronized (TileScheduler.class) {
+            if (pool == null) {
+                pool = new ForkJoinPool(parallelism);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Runs {@code body} over every row of an image, splitting the rows into
+     * bands that may run in parallel. Returns once every band is done.
+     *
+     * @param width  width of the image, used to size the bands
+     * @param height number of rows to cover
+     * @param body   the work to do for each band
+     */
+    public static void forEachBand(int width, int height, Band body) {
+        forEachBand(width, height, 1, body);
+    }
+
+    /**
+     * Like {@link #forEachBand(int, int, Band)}, but never makes a band
+     * shorter than {@code minRows} rows (unless the whole image is shorter).
+     * Operations that pay a start-up cost per band, such as filling a
+     * sliding window, use this to keep that cost small relative to the band.
+     *
+     * @param width   width of the image, used to size the bands
+     * @param height  number of rows to cover
+     * @param minRows the minimum height of a band
+     * @param body    the work to do for each band
+     */
+    public static void forEachBand(int width, int height, int minRows, Band body) {
+        int rows = Math.max(minRows, BAND_PIXELS / Math.max(width, 1));
+        if (getParallelism() == 1 || height <= rows) {
+            body.run(0, height);
+        } else {
+            pool().invoke(new BandTask(body, 0, height, rows));
+        }
+    }
+
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Band body;
+        private final int start;
+        private final int end;
+        private final int rows;
+
+        BandTask(Band body, int start, int end, int rows) {
+            this.body = body;
+            this.start = start;
+            this.end = end;
+            this.rows = rows;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start < 2 * rows) {
+                body.run(start, end);
+            } else {
+                int mid = start + (end - start) / 2;
+                invokeAll(new BandTask(body, start, mid, rows), new BandTask(body, mid, end, rows));
+            }
+        }
+    }
+}
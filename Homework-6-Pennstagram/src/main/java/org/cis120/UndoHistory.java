@@ -0,0 +1,293 @@
+package org.cis120;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A stack of earlier versions of a picture, for undo.
+ *
+ * Storing every version as a whole picture makes each edit cost a full
+ * raster, even when the edit only touched a border or a flooded region. So
+ * versions are instead cut into {@link #TILE} x {@link #TILE} tiles, and a
+ * tile that is identical to the same tile of the version below it is shared
+ * rather than stored again. A run of consecutive versions can share a tile,
+ * but each version only ever shares with its neighbors.
+ *
+ * The tiles kept as plain int arrays are limited to a memory budget. When
+ * the budget is exceeded, tiles of the oldest versions are compressed with a
+ * {@link Deflater}, and they are only inflated again when their version is
+ * popped. Tiles still used by a newer version are compressed only when that
+ * version's turn comes, so the newest versions stay fast to restore.
+ *
+ * This class is not thread-safe. The GUI only uses it from a thread of its
+ * own, so that copying and compressing tiles never holds up the event
+ * thread.
+ */
+public class UndoHistory {
+
+    /**
+     * The width and height of a tile (edge tiles may be smaller).
+     */
+    public static final int TILE = 64;
+
+    /**
+     * The default budget for uncompressed tiles, in bytes.
+     */
+    public static final long DEFAULT_BUDGET = 64L << 20;
+
+    /**
+     * A tile of one or more versions. Exactly one of rgb and deflated is
+     * non-null.
+     */
+    private static class Tile {
+        int[] rgb;
+        byte[] deflated;
+        int length;
+        // the sequence number of the newest version that uses this tile
+        long lastVersion;
+
+        Tile(int[] rgb, long version) {
+            this.rgb = rgb;
+            this.length = rgb.length;
+            this.lastVersion = version;
+        }
+    }
+
+    private static class Version {
+        final long seq;
+        final int width;
+        final int height;
+        final Tile[] tiles;
+
+        Version(long seq, int width, int height) {
+            this.seq = seq;
+            this.width = width;
+            this.height = height;
+            this.tiles = new Tile[tilesAcross(width) * tilesAcross(height)];
+        }
+    }
+
+    private final long budget;
+    // newest version first
+    private final Deque<Version> versions = new ArrayDeque<Version>();
+    private long nextSeq = 0;
+    private long residentBytes = 0;
+    private long spilledBytes = 0;
+
+    /**
+     * Creates an empty history with the {@link #DEFAULT_BUDGET}.
+     */
+    public UndoHistory() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * Creates an empty history.
+     *
+     * @param budget the number of bytes of uncompressed tiles to keep before
+     *               compressing the oldest ones
+     */
+    public UndoHistory(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("negative budget " + budget);
+        }
+        this.budget = budget;
+    }
+
+    private static int tilesAcross(int pixels) {
+        return (pixels + TILE - 1) / TILE;
+    }
+
+    /**
+     * Saves a version of the picture on top of the history.
+     *
+     * @param pic the version to save
+     */
+    public void push(PixelPicture pic) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] src = pic.pixels();
+        Version below = versions.peekFirst();
+        if (below != null && (below.width != w || below.height != h)) {
+            below = null; // nothing lines up
+        }
+        Version v = new Version(nextSeq++, w, h);
+
+        int across = tilesAcross(w);
+        for (int ty = 0; ty < tilesAcross(h); ty++) {
+            for (int tx = 0; tx < across; tx++) {
+                int x0 = tx * TILE;
+                int y0 = ty * TILE;
+                int tw = Math.min(TILE, w - x0);
+                int th = Math.min(TILE, h - y0);
+                int[] rgb = new int[tw * th];
+                for (int row = 0; row < th; row++) {
+                    System.arraycopy(src, (y0 + row) * w + x0, rgb, row * tw, tw);
+                }
+
+                int k = ty * across + tx;
+                Tile shared = below == null ? null : below.tiles[k];
+                if (shared != null && shared.rgb != null && Arrays.equals(shared.rgb, rgb)) {
+                    shared.lastVersion = v.seq;
+                    v.tiles[k] = shared;
+                } else {
+                    v.tiles[k] = new Tile(rgb, v.seq);
+                    residentBytes += 4L * rgb.length;
+                }
+            }
+        }
+        versions.addFirst(v);
+        spill();
+    }
+
+    /**
+     * Removes the most recently saved version from the history.
+     *
+     * @return the most recently saved version
+     * @throws NoSuchElementException if the history is empty
+     */
+    public PixelPicture pop() {
+        Version v = versions.removeFirst();
+        Version below = versions.peekFirst();
+        int w = v.width;
+        int h = v.height;
+        int[] rgb = new int[w * h];
+
+        int across = tilesAcross(w);
+        for (int ty = 0; ty < tilesAcross(h); ty++) {
+            for (int tx = 0; tx < across; tx++) {
+                int x0 = tx * TILE;
+                int y0 = ty * TILE;
+                int tw = Math.min(TILE, w - x0);
+                int th = Math.min(TILE, h - y0);
+                int k = ty * across + tx;
+                Tile t = v.tiles[k];
+
+                int[] tile = t.rgb != null ? t.rgb : inflate(t);
+                for (int row = 0; row < th; row++) {
+                    System.arraycopy(tile, row * tw, rgb, (y0 + row) * w + x0, tw);
+                }
+
+                if (below != null && below.tiles.length > k && below.tiles[k] == t) {
+                    t.lastVersion = below.seq; // still used below
+                } else {
+                    release(t);
+                }
+            }
+        }
+        return new PixelPicture(w, h, rgb);
+    }
+
+    /**
+     * Removes every version from the history.
+     */
+    public void clear() {
+        versions.clear();
+        residentBytes = 0;
+        spilledBytes = 0;
+    }
+
+    /**
+     * @return true if there are no versions to undo to
+     */
+    public boolean isEmpty() {
+        return versions.isEmpty();
+    }
+
+    /**
+     * @return the number of versions in the history
+     */
+    public int size() {
+        return versions.size();
+    }
+
+    /**
+     * @return the number of bytes held in uncompressed tiles
+     */
+    public long residentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return the number of bytes held in compressed tiles
+     */
+    public long spilledBytes() {
+        return spilledBytes;
+    }
+
+    private void release(Tile t) {
+        if (t.rgb != null) {
+            residentBytes -= 4L * t.length;
+        } else {
+            spilledBytes -= t.deflated.length;
+        }
+    }
+
+    /**
+     * Compresses tiles, oldest versions first, until the uncompressed tiles
+     * fit in the budget.
+     */
+    private void spill() {
+        Iterator<Version> oldestFirst = versions.descendingIterator();
+        while (residentBytes > budget && oldestFirst.hasNext()) {
+            Version v = oldestFirst.next();
+            for (Tile t : v.tiles) {
+                if (residentBytes <= budget) {
+                    break;
+                }
+                if (t.rgb != null && t.lastVersion <= v.seq) {
+                    deflate(t);
+                }
+            }
+        }
+    }
+
+    private void deflate(Tile t) {
+        ByteBuffer bytes = ByteBuffer.allocate(4 * t.length);
+        bytes.asIntBuffer().put(t.rgb);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(bytes.array());
+        deflater.finish();
+        byte[] out = new byte[64 + bytes.capacity()];
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            n += deflater.deflate(out, n, out.length - n);
+        }
+        deflater.end();
+
+        t.deflated = Arrays.copyOf(out, n);
+        t.rgb = null;
+        residentBytes -= 4L * t.length;
+        spilledBytes += n;
+    }
+
+    private static int[] inflate(Tile t) {
+        byte[] bytes = new byte[4 * t.length];
+        Inflater inflater = new Inflater();
+        inflater.setInput(t.deflated);
+        try {
+            int n = 0;
+            while (n < bytes.length && !inflater.finished()) {
+                n += inflater.inflate(bytes, n, bytes.length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupt undo tile", e);
+        } finally {
+            inflater.end();
+        }
+        int[] rgb = new int[t.length];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(rgb);
+        return rgb;
+    }
+}
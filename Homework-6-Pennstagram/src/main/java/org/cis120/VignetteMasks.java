@@ -0,0 +1,144 @@
+package org.cis120;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the factors that {@link SimpleManipulations#vignette} multiplies
+ * each pixel by, keyed by picture size.
+ *
+ * The factor of a pixel only depends on its position and the size of the
+ * picture, and computing it takes two square roots. Batch jobs see the same
+ * few sizes over and over, so the factors are computed once per size and
+ * kept in a {@link Mask}. The factors are symmetric about the center of the
+ * picture (the distances from the center are exact, since the center is a
+ * multiple of one half), so a mask only stores one quarter of the picture.
+ * They are stored as doubles, the same values the formula gives, so that
+ * vignetting with a mask gives exactly the same pixels.
+ *
+ * The cache holds masks up to a total number of bytes, evicting the least
+ * recently used ones. Masks larger than the whole budget are handed out
+ * without being cached.
+ */
+final class VignetteMasks {
+
+    /**
+     * The default budget of the shared cache, in bytes.
+     */
+    static final long DEFAULT_BUDGET = 32L << 20;
+
+    /**
+     * The cache used by {@link SimpleManipulations#vignetteStage}.
+     */
+    static final VignetteMasks SHARED = new VignetteMasks(DEFAULT_BUDGET);
+
+    /**
+     * The vignette factors of every pixel of a picture of some size.
+     */
+    static final class Mask {
+        private final int width;
+        private final int height;
+        private final int quarterWidth;
+        private final double[] factors;
+
+        private Mask(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.quarterWidth = (width + 1) / 2;
+            int quarterHeight = (height + 1) / 2;
+            this.factors = new double[quarterWidth * quarterHeight];
+
+            double cx = (width - 1) / 2.0;
+            double cy = (height - 1) / 2.0;
+            double r = Math.sqrt(cx * cx + cy * cy);
+            for (int row = 0; row < quarterHeight; row++) {
+                for (int col = 0; col < quarterWidth; col++) {
+                    double dx = col - cx;
+                    double dy = row - cy;
+                    double d = Math.sqrt((dx * dx) + (dy * dy)) / r;
+                    factors[row * quarterWidth + col] = 1.0 - d * d;
+                }
+            }
+        }
+
+        /**
+         * @param col the column of a pixel
+         * @param row the row of a pixel
+         * @return the factor for the pixel
+         */
+        double factor(int col, int row) {
+            int c = Math.min(col, width - 1 - col);
+            int r = Math.min(row, height - 1 - row);
+            return factors[r * quarterWidth + c];
+        }
+
+        long bytes() {
+            return 8L * factors.length;
+        }
+    }
+
+    private final long budget;
+    // least recently used first
+    private final LinkedHashMap<Long, Mask> masks = new LinkedHashMap<Long, Mask>(16, 0.75f, true);
+    private long bytes = 0;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param budget the most bytes of masks to keep
+     */
+    VignetteMasks(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the mask for pictures of a size, computing it if it is not in
+     * the cache. Pictures must have more than one pixel (a single pixel is
+     * the center, and vignette leaves it alone).
+     *
+     * @param width  the width of the picture
+     * @param height the height of the picture
+     * @return the mask
+     */
+    Mask get(int width, int height) {
+        Long key = ((long) width << 32) | height;
+        synchronized (this) {
+            Mask m = masks.get(key);
+            if (m != null) {
+                return m;
+            }
+        }
+
+        // computed outside the lock; two threads may both compute a mask
+        Mask m = new Mask(width, height);
+        if (m.bytes() > budget) {
+            return m;
+        }
+        synchronized (this) {
+            if (masks.put(key, m) == null) {
+                bytes += m.bytes();
+            }
+            Iterator<Map.Entry<Long, Mask>> eldest = masks.entrySet().iterator();
+            while (bytes > budget) {
+                bytes -= eldest.next().getValue().bytes();
+                eldest.remove();
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @return the number of masks in the cache
+     */
+    synchronized int size() {
+        return masks.size();
+    }
+
+    /**
+     * @return the number of bytes of masks in the cache
+     */
+    synchronized long bytes() {
+        return bytes;
+    }
+}
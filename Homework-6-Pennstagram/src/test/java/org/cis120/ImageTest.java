@@ -1,6 +1,25 @@
 package org.cis120;
 
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -56,6 +75,30 @@ public class ImageTest {
         );
     }
 
+    @Test
+    public void testMirrorHorizontal() {
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        new PixelPicture(LOCATION + "ItalyMirrorHorizontal.png"),
+                        SimpleManipulations.mirrorHorizontal(ITALY)
+                ),
+                "Mirror horizontal"
+        );
+    }
+
+    @Test
+    public void testMirrorVertical() {
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        new PixelPicture(LOCATION + "ItalyMirrorVertical.png"),
+                        SimpleManipulations.mirrorVertical(ITALY)
+                ),
+                "Mirror vertical"
+        );
+    }
+
     @Test
     public void testBorder() {
         assertEquals(
@@ -165,4 +208,1036 @@ public class ImageTest {
         );
     }
 
+    @Test
+    public void testPackedPixelsMatchBitmap() {
+        Pixel[][] bmp = ITALY.getBitmap();
+        int[] rgb = ITALY.getPixels();
+        int w = ITALY.getWidth();
+        for (int row = 0; row < ITALY.getHeight(); row++) {
+            for (int col = 0; col < w; col++) {
+                assertEquals(bmp[row][col].getRGB(), rgb[row * w + col]);
+            }
+        }
+    }
+
+    @Test
+    public void testPackedConstructorRoundTrip() {
+        int[] rgb = ITALY.getPixels();
+        PixelPicture copy = new PixelPicture(ITALY.getWidth(), ITALY.getHeight(), rgb);
+        assertEquals(0, PixelPicture.diff(ITALY, copy));
+        assertEquals(0, PixelPicture.diff(copy, new PixelPicture(copy.getBitmap())));
+    }
+
+    @Test
+    public void testGetPixelsIsACopy() {
+        int[] rgb = ITALY.getPixels();
+        rgb[0] = ~rgb[0];
+        assertNotEquals(rgb[0], ITALY.getPixels()[0]);
+    }
+
+    @Test
+    public void testFusedEighteenNinetyMatchesSteps() {
+        PixelPicture gray = SimpleManipulations.grayScaleLuminosity(ITALY);
+        PixelPicture sepia = SimpleManipulations.scaleColors(gray, 1.0, 0.95, 0.75);
+        PixelPicture vign = SimpleManipulations.vignette(sepia);
+        PixelPicture blend = SimpleManipulations.alphaBlend(0.5, sepia, vign);
+        PixelPicture lighten = SimpleManipulations.scaleColors(blend, 1.1, 1.1, 1.1);
+        assertEquals(0, PixelPicture.diff(lighten, Effects.eighteenNinety(ITALY)));
+    }
+
+    @Test
+    public void testFusedZombieMatchesSteps() {
+        PixelPicture gray = SimpleManipulations.grayScaleLuminosity(ITALY);
+        PixelPicture p1 = SimpleManipulations.alphaBlend(0.2, ITALY, gray);
+        PixelPicture purples = SimpleManipulations
+                .scaleColors(gray, 34.0 / 255, 43.0 / 255, 109.0 / 255);
+        p1 = SimpleManipulations.alphaBlend(0.7, p1, purples);
+        p1 = AdvancedManipulations.adjustContrast(p1, 3.0);
+        p1 = SimpleManipulations.border(p1, 20, new Pixel(0, 0, 0));
+        assertEquals(0, PixelPicture.diff(p1, Effects.zombie(ITALY)));
+    }
+
+    @Test
+    public void testEmptyPipelineIsIdentity() {
+        assertEquals(0, PixelPicture.diff(ITALY, new Pipeline().apply(ITALY)));
+    }
+
+    @Test
+    public void testParallelMatchesSerial() {
+        int saved = TileScheduler.getParallelism();
+        try {
+            TileScheduler.setParallelism(1);
+            PixelPicture blur = AdvancedManipulations.blur(ITALY, 3);
+            PixelPicture pin = Effects.pinHole(ITALY);
+            PixelPicture cw = SimpleManipulations.rotateCW(ITALY);
+
+            TileScheduler.setParallelism(4);
+            assertEquals(0, PixelPicture.diff(blur, AdvancedManipulations.blur(ITALY, 3)));
+            assertEquals(0, PixelPicture.diff(pin, Effects.pinHole(ITALY)));
+            assertEquals(0, PixelPicture.diff(cw, SimpleManipulations.rotateCW(ITALY)));
+        } finally {
+            TileScheduler.setParallelism(saved);
+        }
+    }
+
+    @Test
+    public void testSetParallelismWhileRunning() throws InterruptedException {
+        int saved = TileScheduler.getParallelism();
+        TileScheduler.setParallelism(4);
+        // wide and short, so that each blur is quick but still split into bands
+        PixelPicture pic = new PixelPicture(4096, 64, Arrays.copyOf(ITALY.getPixels(), 4096 * 64));
+        PixelPicture expected = AdvancedManipulations.blur(pic, 1);
+        PixelPicture[] result = new PixelPicture[1];
+        Throwable[] failure = new Throwable[1];
+        Thread worker = new Thread(() -> {
+            try {
+                for (int i = 0; i < 200; i++) {
+                    result[0] = AdvancedManipulations.blur(pic, 1);
+                }
+            } catch (Throwable t) {
+                failure[0] = t;
+            }
+        });
+        try {
+            worker.start();
+            for (int i = 0; worker.isAlive(); i++) {
+                TileScheduler.setParallelism(2 + i % 3);
+            }
+            worker.join();
+        } finally {
+            TileScheduler.setParallelism(saved);
+        }
+        assertNull(failure[0]);
+        assertEquals(0, PixelPicture.diff(expected, result[0]));
+    }
+
+    @Test
+    public void testBlurMatchesDirectAverage() {
+        for (int radius : new int[] { 0, 1, 5, 17 }) {
+            assertEquals(
+                    0,
+                    PixelPicture.diff(
+                            directBlur(ITALY, radius),
+                            AdvancedManipulations.blur(ITALY, radius)
+                    ),
+                    "blur " + radius
+            );
+        }
+    }
+
+    @Test
+    public void testBlurRadiusLargerThanImage() {
+        PixelPicture small = new PixelPicture(
+                new Pixel[][] {
+                    { Pixel.RED, Pixel.GREEN, Pixel.BLUE },
+                    { Pixel.WHITE, Pixel.BLACK, new Pixel(1, 2, 3) }
+                }
+        );
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        directBlur(small, 10),
+                        AdvancedManipulations.blur(small, 10)
+                )
+        );
+    }
+
+    @Test
+    public void testBlurHugeRadius() {
+        PixelPicture small = new PixelPicture(
+                new Pixel[][] {
+                    { Pixel.RED, Pixel.GREEN, Pixel.BLUE, Pixel.WHITE },
+                    { Pixel.WHITE, Pixel.BLACK, new Pixel(1, 2, 3), Pixel.RED },
+                    { Pixel.GREEN, Pixel.GREEN, Pixel.BLUE, Pixel.BLACK },
+                    { Pixel.BLACK, new Pixel(200, 100, 50), Pixel.WHITE, Pixel.BLUE }
+                }
+        );
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        directBlur(small, 4),
+                        AdvancedManipulations.blur(small, Integer.MAX_VALUE)
+                )
+        );
+
+        // the box sums over a large white picture overflow an int
+        int[] white = new int[3000 * 3000];
+        Arrays.fill(white, 0xFFFFFF);
+        PixelPicture big = AdvancedManipulations.blur(new PixelPicture(3000, 3000, white), 3000);
+        for (int p : big.pixels()) {
+            assertEquals(0xFFFFFF, p);
+        }
+    }
+
+    /**
+     * The blur exactly as specified: average the box around each pixel.
+     */
+    private static PixelPicture directBlur(PixelPicture pic, int radius) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] src = pic.getPixels();
+        int[] tgt = new int[w * h];
+        for (int row = 0; row < h; row++) {
+            for (int col = 0; col < w; col++) {
+                int top = Math.max(row - radius, 0);
+                int bottom = Math.min(row + radius, h - 1);
+                int left = Math.max(col - radius, 0);
+                int right = Math.min(col + radius, w - 1);
+
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int y = top; y <= bottom; y++) {
+                    for (int x = left; x <= right; x++) {
+                        int p = src[y * w + x];
+                        r += Pixel.red(p);
+                        g += Pixel.green(p);
+                        b += Pixel.blue(p);
+                    }
+                }
+                double n = (bottom - top + 1) * (right - left + 1);
+                tgt[row * w + col] = Pixel.pack(
+                        (int) Math.round(r / n),
+                        (int) Math.round(g / n),
+                        (int) Math.round(b / n)
+                );
+            }
+        }
+        return new PixelPicture(w, h, tgt);
+    }
+
+    /**
+     * Flood fill by the naive algorithm: a breadth-first search over the
+     * four neighbors of each pixel.
+     */
+    private static PixelPicture naiveFlood(PixelPicture pic, Pixel c, int row, int col) {
+        Pixel[][] bmp = pic.getBitmap();
+        int h = bmp.length;
+        int w = bmp[0].length;
+        Pixel target = bmp[row][col];
+        boolean[][] seen = new boolean[h][w];
+        ArrayDeque<int[]> q = new ArrayDeque<int[]>();
+        q.add(new int[] { row, col });
+        seen[row][col] = true;
+        while (!q.isEmpty()) {
+            int[] p = q.remove();
+            bmp[p[0]][p[1]] = c;
+            int[][] next = { { p[0] - 1, p[1] }, { p[0] + 1, p[1] }, { p[0], p[1] - 1 },
+                { p[0], p[1] + 1 } };
+            for (int[] n : next) {
+                if (n[0] >= 0 && n[0] < h && n[1] >= 0 && n[1] < w && !seen[n[0]][n[1]]
+                        && bmp[n[0]][n[1]].equals(target)) {
+                    seen[n[0]][n[1]] = true;
+                    q.add(n);
+                }
+            }
+        }
+        return new PixelPicture(bmp);
+    }
+
+    @Test
+    public void testFloodMatchesNaive() {
+        Pixel[][] bmp = new Pixel[60][80];
+        for (int row = 0; row < 60; row++) {
+            for (int col = 0; col < 80; col++) {
+                boolean wall = (row * 7 + col * 3) % 11 < 3 || (row % 9 == 4 && col % 13 != 0);
+                bmp[row][col] = wall ? Pixel.BLACK : Pixel.WHITE;
+            }
+        }
+        PixelPicture maze = new PixelPicture(bmp);
+        for (int[] seed : new int[][] { { 0, 5 }, { 30, 40 }, { 59, 79 }, { 4, 1 } }) {
+            assertEquals(
+                    0,
+                    PixelPicture.diff(
+                            naiveFlood(maze, Pixel.RED, seed[0], seed[1]),
+                            AdvancedManipulations.flood(maze, Pixel.RED, seed[0], seed[1])
+                    ),
+                    "flood from " + seed[0] + ", " + seed[1]
+            );
+        }
+    }
+
+    @Test
+    public void testFloodSameColorAndOutside() {
+        PixelPicture outside = AdvancedManipulations.flood(ITALY, Pixel.RED, -1, 3);
+        assertEquals(0, PixelPicture.diff(ITALY, outside));
+
+        PixelPicture red = new PixelPicture(new Pixel[][] { { Pixel.RED, Pixel.RED } });
+        assertEquals(0, PixelPicture.diff(red, AdvancedManipulations.flood(red, Pixel.RED, 0, 0)));
+    }
+
+    @Test
+    @Timeout(10)
+    public void testFloodLargeUniformImage() {
+        int w = 3840;
+        int h = 2160;
+        PixelPicture black = new PixelPicture(w, h, new int[w * h]);
+        int[] flooded = AdvancedManipulations.flood(black, Pixel.BLUE, h / 2, w / 2).getPixels();
+        for (int p : flooded) {
+            assertEquals(Pixel.BLUE.getRGB(), p);
+        }
+    }
+
+    @Test
+    public void testColorMapOrderAndTopColors() {
+        Random rand = new Random(120);
+        ColorMap m = new ColorMap();
+        Map<Pixel, Integer> counts = new TreeMap<Pixel, Integer>();
+        for (int i = 0; i < 20000; i++) {
+            // few distinct frequencies, so many ties
+            Pixel p = new Pixel(rand.nextInt(4) * 80, rand.nextInt(40), rand.nextInt(3));
+            m.addColor(p.getRGB());
+            counts.merge(p, 1, Integer::sum);
+        }
+
+        // the order the original TreeMap-based ColorMap produced
+        List<Pixel> expected = new ArrayList<Pixel>(counts.keySet());
+        expected.sort((a, b) -> counts.get(a).equals(counts.get(b)) ? b.compareTo(a)
+                : counts.get(b) - counts.get(a));
+
+        Pixel[] sorted = m.getSortedPixels();
+        assertEquals(expected.size(), m.size());
+        assertArrayEquals(expected.toArray(new Pixel[0]), sorted);
+        assertEquals(counts.get(sorted[0]).intValue(), m.getValue(sorted[0]));
+
+        for (int k : new int[] { 0, 1, 7, 100, 479, 480, 10000 }) {
+            int[] top = m.getTopColors(k);
+            assertEquals(Math.min(k, sorted.length), top.length);
+            for (int i = 0; i < top.length; i++) {
+                assertEquals(sorted[i].getRGB(), top[i], "top " + k + " at " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testPaletteIndexMatchesLinearScan() {
+        Random rand = new Random(6);
+        for (int size : new int[] { 1, 2, 7, 512, 5000 }) {
+            int[] palette = new int[size];
+            for (int i = 0; i < size; i++) {
+                // coarse values so that many queries are tied between entries
+                palette[i] = Pixel.pack(
+                        rand.nextInt(16) * 17, rand.nextInt(16) * 17, rand.nextInt(16) * 17
+                );
+            }
+            PaletteIndex index = new PaletteIndex(palette);
+            for (int q = 0; q < 20000; q++) {
+                int rgb = rand.nextInt(1 << 24);
+                Pixel p = new Pixel(Pixel.red(rgb), Pixel.green(rgb), Pixel.blue(rgb));
+                int best = palette[0];
+                for (int c : palette) {
+                    Pixel pc = new Pixel(Pixel.red(c), Pixel.green(c), Pixel.blue(c));
+                    Pixel pb = new Pixel(Pixel.red(best), Pixel.green(best), Pixel.blue(best));
+                    if (p.distance(pc) < p.distance(pb)) {
+                        best = c;
+                    }
+                }
+                assertEquals(best, index.closest(rgb), "palette of " + size);
+            }
+        }
+    }
+
+    @Test
+    public void testStripProcessorMatchesInMemory(@TempDir Path dir) {
+        String out = dir.resolve("streamed.png").toString();
+        // 37 does not divide 480, so the last strip is a partial one
+        StripProcessor.process(
+                LOCATION + "Italy.png", out, SimpleManipulations.grayScaleLuminosityStage(), 37
+        );
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        SimpleManipulations.grayScaleLuminosity(ITALY), new PixelPicture(out)
+                )
+        );
+
+        Pipeline chain = new Pipeline().then(SimpleManipulations.invertColorsStage())
+                .then(SimpleManipulations.vignetteStage());
+        // a new file name, since loading goes through the toolkit's image cache
+        String chained = dir.resolve("chained.png").toString();
+        StripProcessor.process(LOCATION + "Italy.png", chained, chain.asPointStage(), 100);
+        assertEquals(0, PixelPicture.diff(chain.apply(ITALY), new PixelPicture(chained)));
+    }
+
+    @Test
+    public void testStripProcessorInPlace(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("inplace.png");
+        Files.copy(Paths.get(LOCATION + "Italy.png"), file);
+        StripProcessor.process(
+                file.toString(), file.toString(), SimpleManipulations.invertColorsStage(), 64
+        );
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        SimpleManipulations.invertColors(ITALY), new PixelPicture(file.toString())
+                )
+        );
+        // only the output is left in the directory
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+
+        // a failed read leaves the output alone
+        Path missing = dir.resolve("missing.png");
+        assertThrows(
+                RuntimeException.class,
+                () -> StripProcessor.process(
+                        missing.toString(), file.toString(),
+                        SimpleManipulations.invertColorsStage(), 64
+                )
+        );
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        SimpleManipulations.invertColors(ITALY), PixelPicture.read(file.toFile())
+                )
+        );
+    }
+
+    @Test
+    public void testRawRasterRoundTrip(@TempDir Path dir) {
+        String file = dir.resolve("italy.pxr").toString();
+        ITALY.save(file);
+        assertEquals(16 + 4L * 640 * 480, new File(file).length());
+        assertEquals(0, PixelPicture.diff(ITALY, new PixelPicture(file)));
+
+        // saving over an existing raster truncates it
+        PixelPicture small = new PixelPicture(3, 2, new int[] { 1, 2, 3, 4, 5, 0xFFFFFF });
+        small.save(file);
+        PixelPicture read = RawRaster.read(file);
+        assertEquals(3, read.getWidth());
+        assertEquals(2, read.getHeight());
+        assertArrayEquals(small.getPixels(), read.getPixels());
+    }
+
+    @Test
+    public void testRawRasterRejectsOtherFiles() {
+        assertThrows(RuntimeException.class, () -> RawRaster.read(LOCATION + "Italy.png"));
+    }
+
+    @Test
+    public void testUndoHistoryRestoresVersions() {
+        PixelPicture[] versions = {
+            ITALY,
+            SimpleManipulations.border(ITALY, 10, Pixel.BLACK),
+            AdvancedManipulations.flood(ITALY, Pixel.RED, 0, 0),
+            SimpleManipulations.rotateCW(ITALY),
+            SimpleManipulations.invertColors(ITALY)
+        };
+        UndoHistory history = new UndoHistory();
+        for (PixelPicture p : versions) {
+            history.push(p);
+        }
+        assertEquals(versions.length, history.size());
+        for (int i = versions.length - 1; i >= 0; i--) {
+            assertEquals(0, PixelPicture.diff(versions[i], history.pop()), "version " + i);
+        }
+        assertTrue(history.isEmpty());
+        assertEquals(0, history.residentBytes());
+    }
+
+    @Test
+    public void testUndoHistorySharesUnchangedTiles() {
+        UndoHistory history = new UndoHistory();
+        history.push(ITALY);
+        long one = history.residentBytes();
+        assertEquals(4L * 640 * 480, one);
+
+        // a 50 x 50 square at (100, 100) overlaps 4 of the 80 tiles
+        int[] rgb = ITALY.getPixels();
+        for (int row = 100; row < 150; row++) {
+            Arrays.fill(rgb, row * 640 + 100, row * 640 + 150, 0xFF0000);
+        }
+        history.push(new PixelPicture(640, 480, rgb));
+        assertEquals(one + 4L * 4 * UndoHistory.TILE * UndoHistory.TILE, history.residentBytes());
+        history.pop();
+        assertEquals(one, history.residentBytes());
+    }
+
+    @Test
+    public void testUndoHistorySpillsOverBudget() {
+        long budget = 4L * 640 * 480; // one picture
+        UndoHistory history = new UndoHistory(budget);
+        PixelPicture[] versions = new PixelPicture[4];
+        versions[0] = ITALY;
+        for (int i = 1; i < versions.length; i++) {
+            versions[i] = SimpleManipulations.invertColors(versions[i - 1]);
+        }
+        for (PixelPicture p : versions) {
+            history.push(p);
+            assertTrue(history.residentBytes() <= budget);
+        }
+        assertTrue(history.spilledBytes() > 0);
+        for (int i = versions.length - 1; i >= 0; i--) {
+            assertEquals(0, PixelPicture.diff(versions[i], history.pop()), "version " + i);
+        }
+        assertEquals(0, history.spilledBytes());
+    }
+
+    @Test
+    public void testRegionRendererRecomputesOnlyNearEdits() {
+        Pipeline effect = new Pipeline()
+                .then(SimpleManipulations.grayScaleLuminosityStage())
+                .then(AdvancedManipulations.blurStage(3))
+                .then(SimpleManipulations.vignetteStage())
+                .then(AdvancedManipulations.blurStage(70));
+        RegionRenderer renderer = new RegionRenderer(effect);
+        assertEquals(0, PixelPicture.diff(effect.apply(ITALY), renderer.render(ITALY)));
+        assertEquals(80, renderer.tilesRendered());
+
+        // paint a small square: the reach is 73, so each changed tile
+        // dirties the tiles up to 2 away
+        int[] rgb = ITALY.getPixels();
+        for (int row = 300; row < 310; row++) {
+            Arrays.fill(rgb, row * 640 + 300, row * 640 + 310, 0x00FF00);
+        }
+        PixelPicture edited = new PixelPicture(640, 480, rgb);
+        assertEquals(0, PixelPicture.diff(effect.apply(edited), renderer.render(edited)));
+        assertEquals(25, renderer.tilesRendered());
+
+        // and back, along the edge of the picture
+        assertEquals(0, PixelPicture.diff(effect.apply(ITALY), renderer.render(ITALY)));
+        PixelPicture flooded = AdvancedManipulations.flood(ITALY, Pixel.RED, 0, 0);
+        assertEquals(0, PixelPicture.diff(effect.apply(flooded), renderer.render(flooded)));
+    }
+
+    @Test
+    public void testRegionRendererFallsBackForGlobalStages() {
+        Pipeline framed = new Pipeline().then(SimpleManipulations.invertColorsStage())
+                .then(p -> SimpleManipulations.border(p, 5, Pixel.BLUE));
+        RegionRenderer renderer = new RegionRenderer(framed);
+        renderer.render(ITALY);
+        PixelPicture flooded = AdvancedManipulations.flood(ITALY, Pixel.RED, 0, 0);
+        assertEquals(0, PixelPicture.diff(framed.apply(flooded), renderer.render(flooded)));
+        assertEquals(80, renderer.tilesRendered());
+    }
+
+    @Test
+    public void testPointKernelsMatchStages() {
+        // whichever kernels are in use (vector ones with -Pvector) must agree
+        // with the point stages, including rounding ties and clipping
+        Random rand = new Random(15);
+        int[] src = new int[1003];
+        int[] other = new int[src.length];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = rand.nextInt(1 << 24);
+            other[i] = rand.nextInt(1 << 24);
+        }
+        PixelPicture pic = new PixelPicture(17, 59, src);
+        PixelPicture f = new PixelPicture(17, 59, other);
+
+        assertArrayEquals(
+                Pipeline.apply(pic, SimpleManipulations.grayScaleLuminosityStage()).getPixels(),
+                SimpleManipulations.grayScaleLuminosity(pic).getPixels()
+        );
+        assertArrayEquals(
+                Pipeline.apply(pic, SimpleManipulations.grayScaleAverageStage()).getPixels(),
+                SimpleManipulations.grayScaleAverage(pic).getPixels()
+        );
+        assertArrayEquals(
+                Pipeline.apply(pic, SimpleManipulations.invertColorsStage()).getPixels(),
+                SimpleManipulations.invertColors(pic).getPixels()
+        );
+        double[][] factors = {
+            { 0.5, 1.5, 2.0 }, { -0.3, 0.1, 1.1 }, { 1e9, Double.NaN, 0.0 }
+        };
+        for (double[] k : factors) {
+            assertArrayEquals(
+                    Pipeline.apply(pic, SimpleManipulations.scaleColorsStage(k[0], k[1], k[2]))
+                            .getPixels(),
+                    SimpleManipulations.scaleColors(pic, k[0], k[1], k[2]).getPixels()
+            );
+        }
+        for (double alpha : new double[] { 0.0, 0.3, 0.5, 1.0, -2.0, 7.5 }) {
+            assertArrayEquals(
+                    Pipeline.apply(pic, SimpleManipulations.alphaBlendStage(alpha, f)).getPixels(),
+                    SimpleManipulations.alphaBlend(alpha, pic, f).getPixels()
+            );
+        }
+    }
+
+    @Test
+    public void testColorTransformMatchesFormulas() {
+        // every color, so that every rounding tie is covered
+        ColorTransform lum = (ColorTransform) SimpleManipulations.grayScaleLuminosityStage();
+        ColorTransform avg = (ColorTransform) SimpleManipulations.grayScaleAverageStage();
+        ColorTransform scale = (ColorTransform) SimpleManipulations
+                .scaleColorsStage(0.5, 1.5, -0.3);
+        for (int rgb = 0; rgb < 1 << 24; rgb++) {
+            int r = Pixel.red(rgb);
+            int g = Pixel.green(rgb);
+            int b = Pixel.blue(rgb);
+            int l = (int) Math.round(0.299 * r + 0.587 * g + 0.114 * b);
+            int a = (int) Math.round((r + g + b) / 3.0);
+            assertEquals(Pixel.pack(l, l, l), lum.apply(rgb));
+            assertEquals(Pixel.pack(a, a, a), avg.apply(rgb));
+            assertEquals(
+                    Pixel.pack(
+                            (int) Math.round(r * 0.5), (int) Math.round(g * 1.5),
+                            (int) Math.round(b * -0.3)
+                    ),
+                    scale.apply(rgb)
+            );
+        }
+    }
+
+    @Test
+    public void testColorTransformsFuse() {
+        Random rand = new Random(16);
+        int[] src = new int[40 * 30];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = rand.nextInt(1 << 24);
+        }
+        PixelPicture pic = new PixelPicture(40, 30, src);
+
+        Pipeline.PointStage[] stages = {
+            SimpleManipulations.scaleColorsStage(1.2, 0.9, 0.3),
+            SimpleManipulations.invertColorsStage(),
+            SimpleManipulations.grayScaleLuminosityStage(),
+            SimpleManipulations.scaleColorsStage(1.0, 0.95, 0.75),
+            SimpleManipulations.grayScaleAverageStage(),
+            SimpleManipulations.scaleColorsStage(1.1, 1.1, 1.1)
+        };
+        PixelPicture expected = pic;
+        for (Pipeline.PointStage stage : stages) {
+            expected = stage instanceof ColorTransform
+                    ? ((ColorTransform) stage).apply(expected)
+                    : Pipeline.apply(expected, stage);
+        }
+        Pipeline.PointStage fused = Pipeline.compose(stages);
+        assertTrue(fused instanceof ColorTransform);
+        assertFalse(((ColorTransform) fused).isPerChannel());
+        assertArrayEquals(expected.getPixels(), Pipeline.apply(pic, fused).getPixels());
+
+        Pipeline.PointStage blended = Pipeline.blend(
+                0.3, SimpleManipulations.invertColorsStage(),
+                SimpleManipulations.scaleColorsStage(0.5, 2.0, 1.0)
+        );
+        assertTrue(blended instanceof ColorTransform);
+        assertArrayEquals(
+                SimpleManipulations.alphaBlend(
+                        0.3, SimpleManipulations.invertColors(pic),
+                        SimpleManipulations.scaleColors(pic, 0.5, 2.0, 1.0)
+                ).getPixels(),
+                Pipeline.apply(pic, blended).getPixels()
+        );
+    }
+
+    @Test
+    public void testVignetteMasks() {
+        int[][] sizes = { { 2, 1 }, { 5, 3 }, { 4, 6 }, { 7, 7 } };
+        for (int[] size : sizes) {
+            int w = size[0];
+            int h = size[1];
+            VignetteMasks.Mask mask = VignetteMasks.SHARED.get(w, h);
+            assertSame(mask, VignetteMasks.SHARED.get(w, h));
+            double cx = (w - 1) / 2.0;
+            double cy = (h - 1) / 2.0;
+            double r = Math.sqrt(cx * cx + cy * cy);
+            for (int row = 0; row < h; row++) {
+                for (int col = 0; col < w; col++) {
+                    double dx = col - cx;
+                    double dy = row - cy;
+                    double d = Math.sqrt(dx * dx + dy * dy) / r;
+                    assertEquals(1.0 - d * d, mask.factor(col, row));
+                }
+            }
+        }
+
+        // 10x10 and 20x20 masks take 200 and 800 bytes
+        VignetteMasks cache = new VignetteMasks(1000);
+        VignetteMasks.Mask small = cache.get(10, 10);
+        cache.get(20, 20);
+        assertEquals(1000, cache.bytes());
+        assertSame(small, cache.get(10, 10)); // now the most recently used
+        cache.get(11, 11);
+        assertEquals(2, cache.size());
+        assertSame(small, cache.get(10, 10));
+        cache.get(100, 100); // bigger than the budget
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testBatchMatchesPipeline(@TempDir Path dir) throws IOException {
+        File in = dir.resolve("in").toFile();
+        in.mkdir();
+        ITALY.save(new File(in, "a.png").getPath());
+        SimpleManipulations.rotateCW(ITALY).save(new File(in, "b.pxr").getPath());
+        Files.write(dir.resolve("in/c.png"), new byte[] { 1, 2, 3 });
+
+        Pipeline p = Batch.parse("luminosity, scale:1:0.95:0.75, blur:1");
+        File out = dir.resolve("out").toFile();
+        // one image in flight at a time exercises the backpressure
+        Batch.Report report = new Batch(p, out, 1, 2, 1, 1)
+                .run(Batch.expand(Collections.singletonList(in.getPath())));
+        assertEquals(2, report.getImages());
+        assertEquals(1, report.getFailures());
+        assertTrue(report.latencyMillis(99) >= report.latencyMillis(50));
+
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        p.apply(ITALY), PixelPicture.read(new File(out, "a.png"))
+                )
+        );
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        p.apply(SimpleManipulations.rotateCW(ITALY)),
+                        PixelPicture.read(new File(out, "b.pxr"))
+                )
+        );
+        assertThrows(IllegalArgumentException.class, () -> Batch.parse("blur:x"));
+        assertThrows(IllegalArgumentException.class, () -> Batch.parse("solarize"));
+
+        // same names from different directories would overwrite each other
+        File other = dir.resolve("other").toFile();
+        other.mkdir();
+        ITALY.save(new File(other, "a.png").getPath());
+        File out2 = dir.resolve("out2").toFile();
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new Batch(p, out2, 1, 1, 1, 1).run(
+                        Batch.expand(Arrays.asList(in.getPath(), other.getPath()))
+                )
+        );
+        assertFalse(out2.exists());
+    }
+
+    @Test
+    public void testDifferenceModes() {
+        int w = 3000;
+        int h = 1000;
+        int[] white = new int[w * h];
+        Arrays.fill(white, 0xFFFFFF);
+        PixelPicture black = new PixelPicture(w, h, new int[w * h]);
+        PixelPicture bright = new PixelPicture(w, h, white);
+
+        // 765 per pixel overflows an int
+        assertEquals(765L * w * h, PixelPicture.difference(black, bright));
+        assertEquals(Integer.MAX_VALUE, PixelPicture.diff(black, bright));
+        assertEquals(Long.MAX_VALUE, PixelPicture.difference(black, ITALY));
+
+        long early = PixelPicture.difference(black, bright, 1000);
+        assertTrue(early > 1000 && early < 765L * w * h);
+        assertEquals(0, PixelPicture.difference(black, new PixelPicture(black), 0));
+
+        assertEquals(0, PixelPicture.sampledDifference(ITALY, new PixelPicture(ITALY), 7));
+        PixelPicture inverted = SimpleManipulations.invertColors(ITALY);
+        long exact = PixelPicture.difference(ITALY, inverted);
+        long sampled = PixelPicture.sampledDifference(ITALY, inverted, 7);
+        assertEquals(exact, PixelPicture.sampledDifference(ITALY, inverted, 1));
+        assertTrue(Math.abs(sampled - exact) < exact / 20);
+    }
+
+    @Test
+    public void testOrientationViewsCompose() {
+        PixelPicture pic = new PixelPicture(3, 2, new int[] { 1, 2, 3, 4, 5, 6 });
+        PixelPicture cw = SimpleManipulations.rotateCW(pic);
+        assertArrayEquals(new int[] { 4, 1, 5, 2, 6, 3 }, cw.getPixels());
+        assertEquals(2, cw.getWidth());
+        assertEquals(3, cw.getHeight());
+
+        // a view of a view that was never materialized
+        PixelPicture ccw = SimpleManipulations.rotateCCW(pic);
+        PixelPicture flipped = SimpleManipulations.mirrorHorizontal(
+                SimpleManipulations.mirrorVertical(SimpleManipulations.rotateCW(ccw))
+        );
+        assertArrayEquals(new int[] { 6, 5, 4, 3, 2, 1 }, flipped.getPixels());
+
+        PixelPicture around = ITALY;
+        for (int i = 0; i < 4; i++) {
+            around = SimpleManipulations.rotateCW(around);
+        }
+        assertEquals(0, PixelPicture.diff(ITALY, around));
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        SimpleManipulations.rotateCW(SimpleManipulations.mirrorVertical(ITALY)),
+                        SimpleManipulations.mirrorHorizontal(SimpleManipulations.rotateCW(ITALY))
+                )
+        );
+    }
+
+    @Test
+    public void testPyramidLevels() {
+        PixelPicture pic = new PixelPicture(3, 3, new int[] {
+            0x000000, 0x0C0000, 0x000001,
+            0x00FF00, 0x0000FF, 0x000002,
+            0xFFFFFF, 0xFFFFFF, 0x000000
+        });
+        assertSame(pic, pic.level(0));
+
+        // odd last row and column are averaged in 2 x 1 and 1 x 2 blocks
+        PixelPicture half = pic.level(1);
+        assertEquals(2, half.getWidth());
+        assertEquals(2, half.getHeight());
+        assertArrayEquals(
+                new int[] { 0x034040, 0x000002, 0xFFFFFF, 0x000000 },
+                half.getPixels()
+        );
+        assertSame(half, pic.level(1));
+
+        PixelPicture one = pic.level(5);
+        assertEquals(1, one.getWidth());
+        assertEquals(1, one.getHeight());
+        assertSame(one, pic.level(5));
+
+        assertSame(pic, pic.levelAtMost(3));
+        assertSame(half, pic.levelAtMost(2));
+        assertSame(pic.level(2), pic.levelAtMost(1));
+        assertSame(pic.level(2), pic.levelAtMost(0));
+
+        PixelPicture preview = ITALY.levelAtMost(100);
+        assertTrue(Math.max(preview.getWidth(), preview.getHeight()) <= 100);
+        assertTrue(Math.max(preview.getWidth(), preview.getHeight()) > 50);
+    }
+
+    @Test
+    public void testEmboss() {
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        new PixelPicture(LOCATION + "ItalyEmboss.png"),
+                        AdvancedManipulations.emboss(ITALY)
+                ),
+                "emboss"
+        );
+    }
+
+    /**
+     * The convolution of each component, in doubles, with the edge pixels
+     * repeated beyond the edges.
+     */
+    private static int[][] directConvolution(PixelPicture pic, double[][] k) {
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[] px = pic.getPixels();
+        int[][] out = new int[3][w * h];
+        for (int c = 0; c < 3; c++) {
+            int shift = 16 - 8 * c;
+            for (int row = 0; row < h; row++) {
+                for (int col = 0; col < w; col++) {
+                    double sum = 0;
+                    for (int i = 0; i < k.length; i++) {
+                        for (int j = 0; j < k[i].length; j++) {
+                            int y = Math.max(0, Math.min(h - 1, row + i - k.length / 2));
+                            int x = Math.max(0, Math.min(w - 1, col + j - k[i].length / 2));
+                            sum += k[i][j] * ((px[y * w + x] >> shift) & 0xFF);
+                        }
+                    }
+                    out[c][row * w + col] = (int) Math.round(sum);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static void assertConvolution(
+            PixelPicture pic, double[][] k, int tolerance, boolean separable
+    ) {
+        Convolution conv = Convolution.of(k);
+        assertEquals(separable, conv.isSeparable());
+        int w = pic.getWidth();
+        int h = pic.getHeight();
+        int[][] expected = directConvolution(pic, k);
+        List<int[]> results = new ArrayList<int[]>();
+        results.add(conv.apply(pic.getPixels(), w, h, Convolution.CLIP));
+        results.add(conv.apply(pic.getPixels(), w, h, Convolution.CLIP, false));
+        if (separable) {
+            results.add(conv.apply(pic.getPixels(), w, h, Convolution.CLIP, true));
+        }
+        for (int[] px : results) {
+            for (int i = 0; i < w * h; i++) {
+                for (int c = 0; c < 3; c++) {
+                    int e = Math.max(0, Math.min(255, expected[c][i]));
+                    int actual = (px[i] >> (16 - 8 * c)) & 0xFF;
+                    assertTrue(Math.abs(e - actual) <= tolerance, "pixel " + i + " component " + c);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConvolutionMatchesDirectSum() {
+        PixelPicture small = new PixelPicture(40, 30, Arrays.copyOf(ITALY.getPixels(), 40 * 30));
+        double[] binomial = { 1 / 16.0, 4 / 16.0, 6 / 16.0, 4 / 16.0, 1 / 16.0 };
+        double[][] gauss = new double[5][5];
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 5; j++) {
+                gauss[i][j] = binomial[i] * binomial[j];
+            }
+        }
+        assertConvolution(small, gauss, 1, true);
+        assertConvolution(ITALY, gauss, 1, true);
+        assertConvolution(
+                small, new double[][] { { 1, 2, 1 }, { 0, 0, 0 }, { -1, -2, -1 } }, 0, true
+        );
+
+        // integer kernels are exact
+        assertConvolution(
+                ITALY, new double[][] { { 0, -1, 0 }, { -1, 5, -1 }, { 0, -1, 0 } }, 0, false
+        );
+        assertConvolution(
+                small, new double[][] { { -1, -1, -1 }, { -1, 8, -1 }, { -1, -1, -1 } }, 0, false
+        );
+        // wider than tall, and wider than the picture
+        assertConvolution(
+                new PixelPicture(2, 3, new int[] { 0x102030, 0xFF0000, 0x00FF00, 1, 2, 3 }),
+                new double[][] { { 1, 0, 0, 0, -1, 0, 2 } }, 0, false
+        );
+    }
+
+    @Test
+    public void testConvolutionStages() {
+        int[] px = new int[35];
+        Arrays.fill(px, 0x336699);
+        PixelPicture gray = new PixelPicture(7, 5, px);
+        assertArrayEquals(gray.getPixels(), AdvancedManipulations.sharpen(gray).getPixels());
+        for (int p : AdvancedManipulations.edges(gray).getPixels()) {
+            assertEquals(0, p);
+        }
+
+        assertEquals(2, Convolution.of(new double[][] { { 1, 1, 1, 1, 1 } }).radius());
+        assertThrows(IllegalArgumentException.class, () -> Convolution.of(new double[2][3]));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> Convolution.of(new double[][] { { 1, 2, 3 }, { 4 }, { 5, 6, 7 } })
+        );
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> Convolution.of(new double[][] { { 1e6 } })
+        );
+        assertEquals(
+                0,
+                PixelPicture.diff(
+                        AdvancedManipulations.sharpen(ITALY),
+                        Batch.parse("sharpen").apply(ITALY)
+                )
+        );
+    }
+
+    @Test
+    public void testPictureStats() {
+        PixelPicture pic = new PixelPicture(3, 2, new int[] {
+            0x0A1400, 0x0A1400, 0xFF0000,
+            0x000001, 0x0A1400, 0x000001
+        });
+        PictureStats stats = pic.stats();
+        assertSame(stats, pic.stats());
+        assertEquals(6, stats.getPixelCount());
+
+        int[] red = stats.histogram(PictureStats.RED);
+        assertEquals(2, red[0]);
+        assertEquals(3, red[10]);
+        assertEquals(1, red[255]);
+        assertEquals(0, stats.min(PictureStats.RED));
+        assertEquals(255, stats.max(PictureStats.RED));
+        assertEquals(285, stats.sum(PictureStats.RED));
+        assertEquals(60, stats.sum(PictureStats.GREEN));
+        assertEquals(10.0, stats.mean(PictureStats.GREEN), 1e-9);
+        assertEquals(1, stats.max(PictureStats.BLUE));
+        // (285 + 60 + 2) / 18 = 19.28
+        assertEquals(19, stats.meanIntensity());
+
+        assertEquals(3, stats.colorCount());
+        assertEquals(2, stats.frequency(0x000001));
+        assertEquals(0, stats.frequency(0x123456));
+        assertArrayEquals(new int[] { 0x0A1400, 0x000001 }, stats.topColors(2));
+
+        // rotations have the same pixels, so they share the statistics
+        assertSame(stats, SimpleManipulations.rotateCW(pic).stats());
+
+        PictureStats italy = ITALY.stats();
+        long red0 = 0;
+        for (int p : ITALY.getPixels()) {
+            red0 += Pixel.red(p);
+        }
+        assertEquals(red0, italy.sum(PictureStats.RED));
+        ColorMap m = new ColorMap();
+        for (int p : ITALY.getPixels()) {
+            m.addColor(p);
+        }
+        assertEquals(m.size(), italy.colorCount());
+        assertArrayEquals(m.getTopColors(100), italy.topColors(100));
+    }
+
+    @Test
+    public void testReducePaletteOctree() {
+        AdvancedManipulations.PaletteMode octree = AdvancedManipulations.PaletteMode.OCTREE;
+
+        // no more colors than allowed: nothing to merge
+        PixelPicture few = new PixelPicture(4, 1, new int[] { 0x102030, 0xFFFFFF, 0x102030, 1 });
+        assertEquals(
+                0, PixelPicture.diff(few, AdvancedManipulations.reducePalette(few, 3, octree))
+        );
+        assertSame(few, AdvancedManipulations.reducePalette(few, 0, octree));
+
+        // a single color is the average of the picture
+        int[] one = OctreeQuantizer.palette(
+                new int[] { 0x000000, 0x0A0A0A, 0x141414, 0xFF0000 }, 1
+        );
+        assertArrayEquals(new int[] { 0x470808 }, one);
+
+        // most used first
+        int[] two = OctreeQuantizer.palette(
+                new int[] { 0x000000, 0xFFFFFF, 0xFFFFFF, 0x010101 }, 2
+        );
+        assertArrayEquals(new int[] { 0xFFFFFF, 0x010101 }, two);
+
+        // a gradient of 4096 colors keeps colors all along it
+        int[] ramp = new int[4096];
+        for (int i = 0; i < ramp.length; i++) {
+            ramp[i] = Pixel.pack(i >> 4, i & 0xF0, 255 - (i >> 4));
+        }
+        int[] palette = OctreeQuantizer.palette(ramp, 16);
+        assertTrue(palette.length > 1 && palette.length <= 16, "palette of " + palette.length);
+
+        for (int n : new int[] { 1, 7, 64, 256 }) {
+            PixelPicture reduced = AdvancedManipulations.reducePalette(ITALY, n, octree);
+            assertTrue(reduced.stats().colorCount() <= n, n + " colors");
+        }
+        PixelPicture frequent = AdvancedManipulations.reducePalette(ITALY, 64);
+        PixelPicture quantized = AdvancedManipulations.reducePalette(ITALY, 64, octree);
+        assertTrue(
+                PixelPicture.difference(ITALY, quantized) < PixelPicture.difference(ITALY, frequent)
+        );
+        assertEquals(
+                0, PixelPicture.diff(quantized, Batch.parse("palette:64:octree").apply(ITALY))
+        );
+        assertThrows(IllegalArgumentException.class, () -> Batch.parse("palette:64:median"));
+    }
+
+    @Test
+    public void testPictureDisplay() {
+        int[] a = ITALY.getPixels();
+        int[] b = a.clone();
+        int w = ITALY.getWidth();
+        b[100 * w + 200] ^= 1;
+        assertFalse(PictureDisplay.differ(a, a.clone(), w, 0, 0, w, ITALY.getHeight()));
+        assertTrue(PictureDisplay.differ(a, b, w, 192, 64, 256, 128));
+        assertFalse(PictureDisplay.differ(a, b, w, 128, 64, 192, 128));
+        assertFalse(PictureDisplay.differ(a, b, w, 192, 101, 256, 128));
+
+        // without a screen, the picture is drawn directly
+        PixelPicture pic = new PixelPicture(3, 2, new int[] { 1, 2, 3, 4, 5, 6 });
+        PictureDisplay display = new PictureDisplay(ITALY);
+        display.show(pic);
+        assertSame(pic, display.getPicture());
+        assertEquals(new Dimension(3, 2), display.getPreferredSize());
+        display.setSize(display.getPreferredSize());
+        BufferedImage img = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+        Graphics g = img.getGraphics();
+        display.paint(g);
+        g.dispose();
+        assertEquals(5, img.getRGB(1, 1) & 0xFFFFFF);
+
+        // a preview is stretched over the picture until the next show
+        display.showStretched(new PixelPicture(1, 1, new int[] { 0x123456 }), 3, 2);
+        g = img.getGraphics();
+        display.paint(g);
+        g.dispose();
+        assertEquals(0x123456, img.getRGB(2, 1) & 0xFFFFFF);
+        assertSame(pic, display.getPicture());
+    }
 }
@@ -54,4 +54,29 @@ public class MyPixelTest {
         assertEquals(0, p.getGreen());
         assertEquals(255, p.getBlue());
     }
+
+    @Test
+    public void testPackAndUnpack() {
+        int rgb = Pixel.pack(10, -20, 300);
+        assertEquals(0x0A00FF, rgb);
+        assertEquals(10, Pixel.red(rgb));
+        assertEquals(0, Pixel.green(rgb));
+        assertEquals(255, Pixel.blue(rgb));
+        assertEquals(rgb, new Pixel(10, -20, 300).getRGB());
+    }
+
+    @Test
+    public void testValueOf() {
+        Pixel p = Pixel.valueOf(0xFF0A00FF);
+        assertEquals(new Pixel(10, 0, 255), p);
+        assertEquals(0x0A00FF, p.getRGB());
+        assertSame(p, Pixel.valueOf(0x0A00FF));
+    }
+
+    @Test
+    public void testHashCodeUnchanged() {
+        // the sum of k * 255 + component over the components k
+        assertEquals(10 + 255 + 20 + 510 + 30, new Pixel(10, 20, 30).hashCode());
+        assertEquals(new Pixel(1, 2, 3).hashCode(), Pixel.valueOf(0x010203).hashCode());
+    }
 }
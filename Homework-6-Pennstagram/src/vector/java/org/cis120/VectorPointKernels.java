@@ -0,0 +1,109 @@
+package org.cis120;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PointKernels} on the incubating Vector API.
+ *
+ * Each step loads a full vector of packed pixels and views it as 64-bit
+ * lanes, each holding two pixels (one in the low half, one in the high
+ * half). The components of each half are widened to doubles, and the same
+ * double arithmetic as in the scalar code is done one lane per pixel. IEEE
+ * arithmetic is exact per operation and Java never fuses a multiply and an
+ * add, so every lane computes the same double as the scalar code, and
+ * Math.round is then reproduced exactly (see {@link #round}).
+ *
+ * Everything stays in one vector shape: converting between int and double
+ * lanes directly changes the shape of the vector, which is slow in current
+ * JDKs, so the conversions are done with the usual exponent tricks instead.
+ * The pixels left over after the last full vector go to the scalar kernels.
+ *
+ * Only the luminosity gray scale is vectorized. The same scheme works for
+ * blending, but with JDK 17's incubator module C2 fails to keep its larger
+ * loop body in registers and it ends up slower than the scalar loop; invert
+ * is already vectorized by C2 on its own. Those kernels are inherited from
+ * {@link PointKernels.Scalar}.
+ *
+ * Compiled only by the {@code vector} Maven profile; see PointKernels.
+ */
+final class VectorPointKernels extends PointKernels.Scalar {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    // 2^52: adding a non-negative int below 2^52 to its bits gives the
+    // double 2^52 + value
+    private static final double TWO_52 = 0x1p52;
+    private static final long TWO_52_BITS = Double.doubleToRawLongBits(TWO_52);
+
+    // 1.5 * 2^52: x + ROUNDER rounds x to an integer for |x| < 2^51, and
+    // the bits of that sum are ROUNDER_BITS + the integer
+    private static final double ROUNDER = 0x1.8p52;
+    private static final long ROUNDER_BITS = Double.doubleToRawLongBits(ROUNDER);
+
+    private static LongVector load(int[] a, int i) {
+        return IntVector.fromArray(INTS, a, i).reinterpretAsLongs();
+    }
+
+    private static void store(LongVector low, LongVector high, int[] a, int i) {
+        low.or(high.lanewise(VectorOperators.LSHL, 32)).reinterpretAsInts().intoArray(a, i);
+    }
+
+    /**
+     * The 8-bit field of each lane starting at the given bit.
+     */
+    private static LongVector component(LongVector v, int shift) {
+        return v.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+    }
+
+    /**
+     * Converts lanes holding values in [0, 2^31) to doubles, exactly.
+     */
+    private static DoubleVector toDoubles(LongVector v) {
+        return v.or(TWO_52_BITS).viewAsFloatingLanes().sub(TWO_52);
+    }
+
+    /**
+     * Math.round, lane by lane, for values whose magnitude is below 2^31.
+     *
+     * Adding ROUNDER rounds x to the nearest integer, with ties going to the
+     * even one; Math.round differs only on ties that went down, i.e. where
+     * x - nearest is exactly one half. That difference is computed exactly
+     * (x and nearest are within a factor of two of each other, or nearest is
+     * 0), so this agrees with Math.round on every input.
+     */
+    private static LongVector round(DoubleVector x) {
+        DoubleVector nearest = x.add(ROUNDER).sub(ROUNDER);
+        VectorMask<Double> tieDown = x.sub(nearest).compare(VectorOperators.GE, 0.5);
+        return nearest.add(1.0, tieDown).add(ROUNDER).viewAsIntegralLanes().sub(ROUNDER_BITS);
+    }
+
+    private static LongVector clip(LongVector c) {
+        return c.max(0).min(255);
+    }
+
+    private static LongVector gray(LongVector level) {
+        return clip(level).mul(0x010101);
+    }
+
+    private static LongVector luminosity(LongVector p, int half) {
+        DoubleVector lum = toDoubles(component(p, half + 16)).mul(0.299)
+                .add(toDoubles(component(p, half + 8)).mul(0.587))
+                .add(toDoubles(component(p, half)).mul(0.114));
+        return gray(round(lum));
+    }
+
+    @Override
+    public void luminosity(int[] src, int[] tgt, int from, int to) {
+        int i = from;
+        for (int upper = from + INTS.loopBound(to - from); i < upper; i += INTS.length()) {
+            LongVector p = load(src, i);
+            store(luminosity(p, 0), luminosity(p, 32), tgt, i);
+        }
+        super.luminosity(src, tgt, i, to);
+    }
+}